@@ -0,0 +1,114 @@
+package com.kendelong.util.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import com.kendelong.util.circuitbreaker.CircuitBreakerAspect;
+import com.kendelong.util.concurrency.ConcurrencyLimitingAspect;
+import com.kendelong.util.performance.PerformanceMonitoringAspect;
+import com.kendelong.util.retry.RetryInterceptor;
+
+/**
+ * Per-call overhead of each aspect, called through a real Spring AOP (CGLIB) proxy the way an
+ * application would call it.  "bare" is a plain call with no proxy, and "proxy" is a proxy with
+ * no aspect on it, so the difference between those two is what Spring costs and the difference
+ * between "proxy" and the others is what our aspect costs.
+ *
+ * All threads share one proxy (and so one aspect instance), so the multi-threaded runs show
+ * contention on the aspect's state.  Run with the GC profiler to see allocation per call,
+ * <pre>
+ * java -jar target/benchmarks.jar AspectOverheadBenchmark -prof gc
+ * </pre>
+ *
+ * @author kdelong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AspectOverheadBenchmark
+{
+	@Param({"bare", "proxy", "circuitBreaker", "concurrencyThrottle", "retry", "performanceMonitor"})
+	private String aspect;
+
+	private IBenchmarkTarget target;
+
+	@Setup
+	public void setUp()
+	{
+		switch(aspect)
+		{
+			case "bare":
+				target = new BenchmarkTargets.Plain();
+				break;
+			case "proxy":
+				target = proxy(new BenchmarkTargets.Plain(), null);
+				break;
+			case "circuitBreaker":
+				target = proxy(new BenchmarkTargets.CircuitBreakerTarget(), new CircuitBreakerAspect());
+				break;
+			case "concurrencyThrottle":
+				target = proxy(new BenchmarkTargets.ConcurrencyThrottleTarget(), new ConcurrencyLimitingAspect());
+				break;
+			case "retry":
+				target = proxy(new BenchmarkTargets.RetryTarget(), new RetryInterceptor());
+				break;
+			case "performanceMonitor":
+				target = proxy(new BenchmarkTargets.MonitoredTarget(), new PerformanceMonitoringAspect());
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown aspect " + aspect);
+		}
+	}
+
+	private IBenchmarkTarget proxy(IBenchmarkTarget bean, Object aspectInstance)
+	{
+		AspectJProxyFactory factory = new AspectJProxyFactory(bean);
+		factory.setProxyTargetClass(true);
+		if(aspectInstance != null) factory.addAspect(aspectInstance);
+		return factory.getProxy();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public int singleThread()
+	{
+		return target.call(42);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public int threads8()
+	{
+		return target.call(42);
+	}
+
+	@Benchmark
+	@Threads(32)
+	public int threads32()
+	{
+		return target.call(42);
+	}
+
+	@Benchmark
+	@Threads(128)
+	public int threads128()
+	{
+		return target.call(42);
+	}
+}
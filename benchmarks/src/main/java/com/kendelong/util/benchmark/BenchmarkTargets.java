@@ -0,0 +1,64 @@
+package com.kendelong.util.benchmark;
+
+import com.kendelong.util.circuitbreaker.CircuitBreakable;
+import com.kendelong.util.concurrency.ConcurrencyThrottle;
+import com.kendelong.util.performance.MonitorPerformance;
+import com.kendelong.util.retry.RetryableOperation;
+
+/**
+ * One target class per aspect, each annotated the way an application would annotate it.
+ *
+ * @author kdelong
+ */
+public class BenchmarkTargets
+{
+	public static class Plain implements IBenchmarkTarget
+	{
+		@Override
+		public int call(int i)
+		{
+			return i + 1;
+		}
+	}
+
+	public static class CircuitBreakerTarget implements IBenchmarkTarget
+	{
+		@Override
+		@CircuitBreakable
+		public int call(int i)
+		{
+			return i + 1;
+		}
+	}
+
+	public static class ConcurrencyThrottleTarget implements IBenchmarkTarget
+	{
+		// high enough that the 128 thread runs never get rejected; we want the cost of a call that is let in
+		@Override
+		@ConcurrencyThrottle(threadLimit = 1000)
+		public int call(int i)
+		{
+			return i + 1;
+		}
+	}
+
+	public static class RetryTarget implements IBenchmarkTarget
+	{
+		@Override
+		@RetryableOperation
+		public int call(int i)
+		{
+			return i + 1;
+		}
+	}
+
+	@MonitorPerformance
+	public static class MonitoredTarget implements IBenchmarkTarget
+	{
+		@Override
+		public int call(int i)
+		{
+			return i + 1;
+		}
+	}
+}
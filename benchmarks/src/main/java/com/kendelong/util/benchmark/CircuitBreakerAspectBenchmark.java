@@ -0,0 +1,87 @@
+package com.kendelong.util.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kendelong.util.circuitbreaker.CircuitBreakable;
+import com.kendelong.util.circuitbreaker.CircuitBreakerAspect;
+import com.kendelong.util.circuitbreaker.FailureDetection;
+
+/**
+ * Cost of a call that the circuit breaker lets straight through, measured by calling the advice
+ * directly with a reusable join point.  Run it with the GC profiler,
+ * <pre>
+ * java -jar target/benchmarks.jar CircuitBreakerAspectBenchmark -prof gc
+ * </pre>
+ * and the gc.alloc.rate.norm line should be (close to) 0 B/op for both modes: once the breaker for
+ * a method has been created, admitting a call allocates nothing.
+ *
+ * @author kdelong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CircuitBreakerAspectBenchmark
+{
+	private CircuitBreakerAspect aspect;
+	private StubJoinPoint consecutiveJoinPoint;
+	private CircuitBreakable consecutiveAnn;
+	private StubJoinPoint windowedJoinPoint;
+	private CircuitBreakable windowedAnn;
+
+	@Setup
+	public void setUp() throws Exception
+	{
+		aspect = new CircuitBreakerAspect();
+		Target target = new Target();
+
+		Method consecutive = Target.class.getMethod("consecutive");
+		consecutiveAnn = consecutive.getAnnotation(CircuitBreakable.class);
+		consecutiveJoinPoint = new StubJoinPoint(target, consecutive, "ok");
+
+		Method windowed = Target.class.getMethod("windowed");
+		windowedAnn = windowed.getAnnotation(CircuitBreakable.class);
+		windowedJoinPoint = new StubJoinPoint(target, windowed, "ok");
+	}
+
+	@Benchmark
+	public Object consecutiveFailures() throws Throwable
+	{
+		return aspect.applyCircuitBreaker(consecutiveJoinPoint, consecutiveAnn);
+	}
+
+	@Benchmark
+	public Object countWindow() throws Throwable
+	{
+		return aspect.applyCircuitBreaker(windowedJoinPoint, windowedAnn);
+	}
+
+	public static class Target
+	{
+		@CircuitBreakable
+		public String consecutive()
+		{
+			return "ok";
+		}
+
+		@CircuitBreakable(failureDetection = FailureDetection.COUNT_WINDOW)
+		public String windowed()
+		{
+			return "ok";
+		}
+	}
+}
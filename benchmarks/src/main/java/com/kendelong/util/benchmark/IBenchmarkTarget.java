@@ -0,0 +1,12 @@
+package com.kendelong.util.benchmark;
+
+/**
+ * The method the aspect benchmarks call.  It does next to nothing, so what's measured is the
+ * cost of the proxy and the advice around it.
+ *
+ * @author kdelong
+ */
+public interface IBenchmarkTarget
+{
+	public int call(int i);
+}
@@ -0,0 +1,29 @@
+package com.kendelong.util.benchmark;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The recording path of PerformanceMonitor as it was before the LongAdder rework (four atomics updated
+ * per call, racy min/max), kept here only so {@link PerformanceMonitorContentionBenchmark} can compare
+ * the two.
+ *
+ * @author kdelong
+ */
+public class LegacyPerformanceMonitor
+{
+	private AtomicInteger numberOfAccesses = new AtomicInteger();
+	private AtomicInteger numberOfSuccesses = new AtomicInteger();
+	private AtomicLong sumOfAllSuccesses = new AtomicLong();
+	private AtomicLong maximum = new AtomicLong();
+	private AtomicLong minimum = new AtomicLong(Long.MAX_VALUE);
+
+	public void addTimingInNanos(long nanos)
+	{
+		numberOfAccesses.incrementAndGet();
+		numberOfSuccesses.incrementAndGet();
+		sumOfAllSuccesses.addAndGet(nanos);
+		if(nanos > maximum.get()) maximum.set(nanos);
+		if(nanos < minimum.get()) minimum.set(nanos);
+	}
+}
@@ -0,0 +1,82 @@
+package com.kendelong.util.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kendelong.util.performance.PerformanceMonitor;
+
+/**
+ * Throughput of recording timings into one monitor shared by many threads, which is what a busy method
+ * does.  "legacy" is the old AtomicInteger/AtomicLong monitor, "current" is PerformanceMonitor.
+ * <pre>
+ * java -jar target/benchmarks.jar PerformanceMonitorContentionBenchmark
+ * </pre>
+ * The difference only shows on a machine with many cores; on one or two cores the threads just take turns.
+ *
+ * @author kdelong
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PerformanceMonitorContentionBenchmark
+{
+	@State(Scope.Benchmark)
+	public static class Monitors
+	{
+		final LegacyPerformanceMonitor legacy = new LegacyPerformanceMonitor();
+		final PerformanceMonitor current = new PerformanceMonitor();
+	}
+
+	@State(Scope.Thread)
+	public static class Timings
+	{
+		private long next;
+
+		// varies the timing so that min and max see some traffic, like real calls would
+		long next()
+		{
+			next = (next + 7919) % 1_000_000;
+			return next;
+		}
+	}
+
+	@Benchmark
+	@Threads(64)
+	public void legacy64(Monitors monitors, Timings timings)
+	{
+		monitors.legacy.addTimingInNanos(timings.next());
+	}
+
+	@Benchmark
+	@Threads(64)
+	public void current64(Monitors monitors, Timings timings)
+	{
+		monitors.current.addTimingInNanos(timings.next());
+	}
+
+	@Benchmark
+	@Threads(128)
+	public void legacy128(Monitors monitors, Timings timings)
+	{
+		monitors.legacy.addTimingInNanos(timings.next());
+	}
+
+	@Benchmark
+	@Threads(128)
+	public void current128(Monitors monitors, Timings timings)
+	{
+		monitors.current.addTimingInNanos(timings.next());
+	}
+}
@@ -0,0 +1,157 @@
+package com.kendelong.util.benchmark;
+
+import java.lang.reflect.Method;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.aspectj.lang.reflect.SourceLocation;
+import org.aspectj.runtime.internal.AroundClosure;
+
+/**
+ * A join point that can be reused across invocations, so that a benchmark that calls an aspect's
+ * advice directly measures the aspect and nothing else.  Spring's own join point (and its
+ * signature) is allocated on each proxied call; the proxy benchmarks cover that.
+ *
+ * @author kdelong
+ */
+public class StubJoinPoint implements ProceedingJoinPoint, MethodSignature
+{
+	private static final Object[] NO_ARGS = new Object[0];
+
+	private final Object target;
+	private final Method method;
+	private final Object result;
+
+	public StubJoinPoint(Object target, Method method, Object result)
+	{
+		this.target = target;
+		this.method = method;
+		this.result = result;
+	}
+
+	@Override
+	public Object proceed() throws Throwable
+	{
+		return result;
+	}
+
+	@Override
+	public Object proceed(Object[] args) throws Throwable
+	{
+		return result;
+	}
+
+	@Override
+	public void set$AroundClosure(AroundClosure arc)
+	{
+	}
+
+	@Override
+	public Object getThis()
+	{
+		return target;
+	}
+
+	@Override
+	public Object getTarget()
+	{
+		return target;
+	}
+
+	@Override
+	public Object[] getArgs()
+	{
+		return NO_ARGS;
+	}
+
+	@Override
+	public MethodSignature getSignature()
+	{
+		return this;
+	}
+
+	@Override
+	public SourceLocation getSourceLocation()
+	{
+		return null;
+	}
+
+	@Override
+	public String getKind()
+	{
+		return JoinPoint.METHOD_EXECUTION;
+	}
+
+	@Override
+	public JoinPoint.StaticPart getStaticPart()
+	{
+		return null;
+	}
+
+	@Override
+	public Method getMethod()
+	{
+		return method;
+	}
+
+	@Override
+	public Class getReturnType()
+	{
+		return method.getReturnType();
+	}
+
+	@Override
+	public Class[] getParameterTypes()
+	{
+		return method.getParameterTypes();
+	}
+
+	@Override
+	public String[] getParameterNames()
+	{
+		return null;
+	}
+
+	@Override
+	public Class[] getExceptionTypes()
+	{
+		return method.getExceptionTypes();
+	}
+
+	@Override
+	public String getName()
+	{
+		return method.getName();
+	}
+
+	@Override
+	public int getModifiers()
+	{
+		return method.getModifiers();
+	}
+
+	@Override
+	public Class getDeclaringType()
+	{
+		return method.getDeclaringClass();
+	}
+
+	@Override
+	public String getDeclaringTypeName()
+	{
+		return method.getDeclaringClass().getName();
+	}
+
+	@Override
+	public String toShortString()
+	{
+		return method.getName();
+	}
+
+	@Override
+	public String toLongString()
+	{
+		return method.toString();
+	}
+}
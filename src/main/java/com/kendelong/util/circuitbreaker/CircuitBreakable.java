@@ -8,11 +8,113 @@ import java.lang.annotation.Target;
 /**
  * Use this annotation on any method that should have a Circuit Breaker on it
  *
+ * By default the breaker trips after a number of consecutive failures.  Set failureDetection
+ * to one of the window modes to trip on the failure rate (or slow call rate) over a sliding
+ * window of recent calls instead.  The window settings are ignored in CONSECUTIVE mode.
+ *
+ * Every exception counts as a failure unless the exception lists say otherwise (see {@link ExceptionClassifier}),
+ * and a returned value can be counted as a failure by a resultPredicate.  A call that succeeds but takes at least
+ * slowCallDurationMs is a slow call, and a call can be given a hard timeout (timeoutMs).
+ *
+ * When the breaker won't let a call through, the caller gets the last known good result for the same arguments
+ * (lastKnownGoodCacheSize), or the result of the fallback method, or failing both a CircuitBreakerException.
+ *
  * @author kdelong
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface CircuitBreakable
 {
+	/**
+	 * Name of the breaker.  Methods on the same bean with the same name share one breaker; by default
+	 * each method gets its own, named after the class and method, with the parameter types if the method is
+	 * overloaded.  Methods sharing a breaker must give it the same settings (everything but fallback and the
+	 * lastKnownGood attributes, which are per method); one that doesn't throws an IllegalStateException when
+	 * it's first seen.
+	 */
+	String name() default "";
+
+	FailureDetection failureDetection() default FailureDetection.CONSECUTIVE;
+
+	/**
+	 * Number of calls (COUNT_WINDOW) or number of seconds (TIME_WINDOW) in the sliding window
+	 */
+	int windowSize() default 100;
+
+	/**
+	 * The window is not evaluated until it holds at least this many calls
+	 */
+	int minimumNumberOfCalls() default 20;
+
+	/**
+	 * Percentage of failed calls in the window that trips the breaker
+	 */
+	int failureRateThreshold() default 50;
+
+	/**
+	 * Percentage of slow calls in the window that trips the breaker
+	 */
+	int slowCallRateThreshold() default 100;
+
+	/**
+	 * Calls that succeed but take at least this long are slow.  In the window modes they count towards the
+	 * slowCallRateThreshold; in CONSECUTIVE mode, and in the half-open trials, they count as failures.  0 (the default)
+	 * turns this off.
+	 */
+	long slowCallDurationMs() default 0;
+
+	/**
+	 * Number of trial calls let through at the same time when the breaker is half-open
+	 */
+	int permittedCallsInHalfOpenState() default 1;
+
+	/**
+	 * Number of trial calls that must succeed before a half-open breaker closes again
+	 */
+	int successfulCallsToClose() default 1;
+
+	/**
+	 * Exceptions (and their subclasses) that count as failures; empty means all of them
+	 */
+	Class<? extends Throwable>[] recordExceptions() default {};
+
+	/**
+	 * Exceptions (and their subclasses) that are passed on without counting as failures or successes
+	 */
+	Class<? extends Throwable>[] ignoreExceptions() default {};
+
+	/**
+	 * Exceptions (and their subclasses) that open the breaker at once
+	 */
+	Class<? extends Throwable>[] tripExceptions() default {};
+
+	/**
+	 * Counts some returned values as failures; the default, the interface itself, counts none
+	 */
+	Class<? extends IResultPredicate> resultPredicate() default IResultPredicate.class;
+
+	/**
+	 * If set, the call runs on a virtual thread and is abandoned with a CircuitBreakerTimeoutException (a failure) after this long
+	 */
+	long timeoutMs() default 0;
+
+	/**
+	 * Name of a method on the same bean, with the same parameters, to call instead while the breaker won't let calls through
+	 */
+	String fallback() default "";
+
+	/**
+	 * If set, the last successful result for each set of arguments (up to this many) is served while the breaker won't let calls through
+	 */
+	int lastKnownGoodCacheSize() default 0;
+
+	/**
+	 * Remembered results older than this are not served
+	 */
+	long lastKnownGoodTtlMs() default 300000;
 
+	/**
+	 * Number of recent state changes the breaker keeps for its RecentEvents history
+	 */
+	int eventHistorySize() default 32;
 }
@@ -0,0 +1,577 @@
+package com.kendelong.util.circuitbreaker;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanUtils;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.kendelong.util.circuitbreaker.CircuitBreakerEvent.Transition;
+import com.kendelong.util.concurrency.Bulkhead;
+import com.kendelong.util.concurrency.BulkheadTimeoutException;
+import com.kendelong.util.monitoring.graphite.GraphiteClient;
+import com.kendelong.util.spring.MethodNames;
+
+/**
+ * A single circuit breaker.  This is a stateful object, the state variable refers to the current
+ * state re the GoF State Pattern.  The {@link CircuitBreakerAspect} keeps one of these for each
+ * annotated method (or for each name given in {@link CircuitBreakable#name()}), so a failing method
+ * only opens its own breaker.
+ *
+ * See the javadoc for the individual states for deeper explanation.
+ *
+ * {@link OpenState}
+ * {@link ClosedState}
+ * {@link SlidingWindowClosedState}
+ * {@link HalfOpenState}
+ *
+ * Every change of state is kept in a small {@link CircuitBreakerEventBuffer} and passed on to the
+ * {@link ICircuitBreakerListener}s, so flapping can be pieced together after the fact.
+ *
+ * @author kdelong
+ */
+@ManagedResource(description="A single circuit breaker guarding one method or one named group of methods")
+public class CircuitBreaker
+{
+	// the annotation attributes that configure the breaker itself, which methods sharing it have to agree on
+	private static final List<String> BREAKER_SETTINGS = List.of("failureDetection", "windowSize", "minimumNumberOfCalls",
+			"failureRateThreshold", "slowCallRateThreshold", "slowCallDurationMs", "permittedCallsInHalfOpenState", "successfulCallsToClose",
+			"recordExceptions", "ignoreExceptions", "tripExceptions", "resultPredicate", "timeoutMs", "eventHistorySize");
+
+	private final String name;
+	private final AtomicReference<ICircuitBreakerState> state = new AtomicReference<ICircuitBreakerState>();
+	private final OpenState OPEN_STATE = new OpenState();
+	private final ClosedState closedState;
+	private final FailureDetection failureDetection;
+	private final int permittedCallsInHalfOpenState;
+	private final int successfulCallsToClose;
+	private final ExceptionClassifier exceptionClassifier;
+	private final IResultPredicate resultPredicate;
+	private final long slowCallDurationNanos;
+	private final AtomicLong slowCallCount = new AtomicLong();
+	private final Bulkhead timeoutBulkhead;
+	private final AtomicLong fallbackCount = new AtomicLong();
+	private final AtomicLong lastKnownGoodCount = new AtomicLong();
+	private final CircuitBreakerEventBuffer events;
+	private final Queue<CircuitBreakerEvent> undeliveredEvents = new ConcurrentLinkedQueue<>();
+	private final AtomicBoolean delivering = new AtomicBoolean();
+	private volatile List<ICircuitBreakerListener> listeners = List.of();
+	private volatile Executor listenerExecutor;
+
+	private final AtomicInteger totalNumberOfTrips = new AtomicInteger();
+	private final AtomicReference<Date> timeOfLastTrip = new AtomicReference<Date>();
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	private GraphiteClient graphiteClient;
+	private final String accessesKey;
+	private final String tripsKey;
+	private final String resetsKey;
+	// the annotation the breaker was created from
+	private final CircuitBreakable settings;
+
+	public CircuitBreaker(String name, CircuitBreakable ann)
+	{
+		this.name = name;
+		this.settings = ann;
+		// built once here so that counting calls doesn't concatenate strings on every invocation
+		String graphitePrefix = "circuitbreaker." + MethodNames.toMetricName(name);
+		this.accessesKey = graphitePrefix + ".accesses";
+		this.tripsKey = graphitePrefix + ".trips";
+		this.resetsKey = graphitePrefix + ".resets";
+		this.failureDetection = ann.failureDetection();
+		this.closedState = createClosedState(ann);
+		this.permittedCallsInHalfOpenState = ann.permittedCallsInHalfOpenState();
+		this.successfulCallsToClose = ann.successfulCallsToClose();
+		this.exceptionClassifier = new ExceptionClassifier(ann.recordExceptions(), ann.ignoreExceptions(), ann.tripExceptions());
+		this.slowCallDurationNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ann.slowCallDurationMs()));
+		this.timeoutBulkhead = ann.timeoutMs() > 0 ? new Bulkhead(name, ann.timeoutMs()) : null;
+		this.resultPredicate = ann.resultPredicate() == IResultPredicate.class ? null : BeanUtils.instantiateClass(ann.resultPredicate());
+		this.events = new CircuitBreakerEventBuffer(ann.eventHistorySize());
+		state.set(closedState);
+	}
+
+	/**
+	 * The first attribute of the breaker's own settings (not the per-method ones like the fallback) that differs
+	 * between this annotation and the one the breaker was created from, or null if they agree
+	 */
+	String findDifferentSetting(CircuitBreakable ann)
+	{
+		for(String attribute : BREAKER_SETTINGS)
+		{
+			try
+			{
+				Object ours = CircuitBreakable.class.getMethod(attribute).invoke(settings);
+				if(!Objects.deepEquals(ours, CircuitBreakable.class.getMethod(attribute).invoke(ann))) return attribute;
+			}
+			catch(ReflectiveOperationException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+		return null;
+	}
+
+	private static ClosedState createClosedState(CircuitBreakable ann)
+	{
+		switch(ann.failureDetection())
+		{
+			case COUNT_WINDOW:
+				return new SlidingWindowClosedState(new CountBasedSlidingWindow(ann.windowSize()), ann.minimumNumberOfCalls(),
+						ann.failureRateThreshold(), ann.slowCallRateThreshold());
+			case TIME_WINDOW:
+				return new SlidingWindowClosedState(new TimeBasedSlidingWindow(ann.windowSize()), ann.minimumNumberOfCalls(),
+						ann.failureRateThreshold(), ann.slowCallRateThreshold());
+			default:
+				return new ClosedState();
+		}
+	}
+
+	ICircuitBreakerState getState()
+	{
+		return state.get();
+	}
+
+	ExceptionClassifier.Classification classify(Throwable t)
+	{
+		return exceptionClassifier.classify(t);
+	}
+
+	boolean isFailedResult(Object result)
+	{
+		return resultPredicate != null && resultPredicate.isFailure(result);
+	}
+
+	/**
+	 * Whether a successful call that took this long is a slow call.  Counts it if so; the states call this
+	 * once for each successful call.
+	 */
+	boolean isSlowCall(long elapsedNanos)
+	{
+		if(slowCallDurationNanos == 0 || elapsedNanos < slowCallDurationNanos) return false;
+		slowCallCount.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Run the call, on a virtual thread with a deadline if the breaker has a timeout
+	 */
+	Object proceed(ProceedingJoinPoint pjp) throws Throwable
+	{
+		if(timeoutBulkhead == null) return pjp.proceed();
+		try
+		{
+			return timeoutBulkhead.execute(pjp::proceed);
+		}
+		catch(BulkheadTimeoutException e)
+		{
+			throw new CircuitBreakerTimeoutException("Call through circuit breaker [" + name + "] did not finish within "
+					+ timeoutBulkhead.getTimeoutMs() + " ms; abandoned it", e);
+		}
+	}
+
+	void recordFallback()
+	{
+		fallbackCount.incrementAndGet();
+	}
+
+	void recordLastKnownGoodResponse()
+	{
+		lastKnownGoodCount.incrementAndGet();
+	}
+
+	void recordAccess()
+	{
+		if(graphiteClient != null) graphiteClient.increment(accessesKey);
+	}
+
+	@ManagedAttribute(description="Name of this breaker")
+	public String getName()
+	{
+		return name;
+	}
+
+	@ManagedAttribute()
+	public void setFailureThreshold(int threshold)
+	{
+		closedState.setFailureThreshold(threshold);
+	}
+
+	@ManagedAttribute(description="Number of sucessive failure before we trip the breaker")
+	public int getFailureThreshold()
+	{
+		return closedState.getFailureThreshold();
+	}
+
+	@ManagedOperation(description="Open the circuit breaker (disallow calls to remote service)")
+	public void tripBreaker()
+	{
+		OPEN_STATE.trip();
+		recordTrip(state.getAndSet(OPEN_STATE), null, null);
+	}
+
+	/**
+	 * Trip the breaker, but only if it is still in the given state.  When many calls fail at
+	 * once only the first one trips it.  The cause is null when it wasn't an exception.
+	 */
+	void tripBreaker(ICircuitBreakerState expected, Throwable cause)
+	{
+		if(state.get() != expected) return;
+		OPEN_STATE.trip();
+		if(state.compareAndSet(expected, OPEN_STATE)) recordTrip(expected, cause, null);
+	}
+
+	private void recordTrip(ICircuitBreakerState from, Throwable cause, String origin)
+	{
+		recordEvent(Transition.OPENED, from, cause, closedState.getCurrentFailureCount(), origin);
+		timeOfLastTrip.set(new Date());
+		if(origin == null)
+			logger.warn("Circuit breaker [{}] tripped; going to OpenState", name);
+		else
+			logger.warn("Circuit breaker [{}] tripped by [{}]; going to OpenState", name, origin);
+		totalNumberOfTrips.incrementAndGet();
+		if(graphiteClient != null) graphiteClient.increment(tripsKey);
+	}
+
+	@ManagedAttribute()
+	public void setRecoveryTimeout(int timeout)
+	{
+		OPEN_STATE.setRecoveryTimeout(timeout);
+	}
+
+	@ManagedAttribute(description="Number of milliseconds to wait before we try the remote service again")
+	public int getRecoveryTimeout()
+	{
+		return OPEN_STATE.getRecoveryTimeout();
+	}
+
+	@ManagedOperation(description="Move to half-open state; try the remote service tentatively")
+	public void attemptReset()
+	{
+		// a new object each time, so the trial counts start over
+		// there's not going to be that many of them
+		ICircuitBreakerState from = state.getAndSet(new HalfOpenState(permittedCallsInHalfOpenState, successfulCallsToClose));
+		recordEvent(Transition.HALF_OPENED, from, null, closedState.getCurrentFailureCount(), null);
+		logger.info("Attempting reset of [{}]; going HalfOpen", name);
+	}
+
+	/**
+	 * Go half-open, but only if the breaker is still in the given open state
+	 */
+	void attemptReset(OpenState expected)
+	{
+		if(state.compareAndSet(expected, new HalfOpenState(permittedCallsInHalfOpenState, successfulCallsToClose)))
+		{
+			recordEvent(Transition.HALF_OPENED, expected, null, closedState.getCurrentFailureCount(), null);
+			logger.info("Attempting reset of [{}]; going HalfOpen", name);
+		}
+	}
+
+	/**
+	 * Follow a change of state reported by another node (see {@link CircuitBreakerGossip}).  An open report
+	 * opens a closed or half-open breaker; any other report lets an open breaker go half-open, so it finds
+	 * out for itself whether the remote service is back.  Returns whether the breaker changed.
+	 */
+	boolean followPeer(Transition transition, String origin)
+	{
+		ICircuitBreakerState current = state.get();
+		if(transition == Transition.OPENED)
+		{
+			if(current == OPEN_STATE) return false;
+			OPEN_STATE.trip();
+			if(!state.compareAndSet(current, OPEN_STATE)) return false;
+			recordTrip(current, null, origin);
+			return true;
+		}
+		if(current != OPEN_STATE) return false;
+		if(!state.compareAndSet(current, new HalfOpenState(permittedCallsInHalfOpenState, successfulCallsToClose))) return false;
+		recordEvent(Transition.HALF_OPENED, current, null, closedState.getCurrentFailureCount(), origin);
+		logger.info("Attempting reset of [{}] after [{}] went {}; going HalfOpen", name, origin, transition);
+		return true;
+	}
+
+	@ManagedOperation(description="Reset the breaker and go closed (start using the remote service again)")
+	public void reset()
+	{
+		int failures = closedState.getCurrentFailureCount();
+		closedState.resetFailureCount();
+		recordReset(state.getAndSet(closedState), failures);
+	}
+
+	/**
+	 * Go closed, but only if the breaker is still in the given half-open state
+	 */
+	void reset(HalfOpenState expected)
+	{
+		// if another thread tripped the breaker in the meantime, its failures stay counted
+		if(!state.compareAndSet(expected, closedState)) return;
+		int failures = closedState.getCurrentFailureCount();
+		closedState.resetFailureCount();
+		recordReset(expected, failures);
+	}
+
+	private void recordReset(ICircuitBreakerState from, int failures)
+	{
+		recordEvent(Transition.CLOSED, from, null, failures, null);
+		logger.info("Circuit breaker [{}] reset; all is happy again", name);
+		if(graphiteClient != null) graphiteClient.increment(resetsKey);
+	}
+
+	/**
+	 * Keep the change in the history and, if anybody is listening, queue it for delivery.  Only one
+	 * delivery task per breaker runs at a time; it keeps going until the queue is empty.
+	 */
+	private void recordEvent(Transition transition, ICircuitBreakerState from, Throwable cause, int failures, String origin)
+	{
+		CircuitBreakerEvent event = new CircuitBreakerEvent(name, events.nextSequence(), System.currentTimeMillis(), transition,
+				getStateName(from), cause, failures, origin);
+		events.add(event);
+		if(listeners.isEmpty() || listenerExecutor == null) return;
+		undeliveredEvents.offer(event);
+		if(delivering.compareAndSet(false, true)) listenerExecutor.execute(this::deliverEvents);
+	}
+
+	private void deliverEvents()
+	{
+		do
+		{
+			CircuitBreakerEvent event;
+			while((event = undeliveredEvents.poll()) != null)
+			{
+				for(ICircuitBreakerListener listener : listeners)
+				{
+					try
+					{
+						listener.onStateTransition(event);
+					}
+					catch(RuntimeException e)
+					{
+						logger.warn("Circuit breaker listener {} failed on {}", listener, event, e);
+					}
+				}
+			}
+			delivering.set(false);
+		}
+		// an event queued after the last poll but before the flag was cleared would otherwise wait for the next one
+		while(!undeliveredEvents.isEmpty() && delivering.compareAndSet(false, true));
+	}
+
+	@ManagedOperation(description="The most recent changes of state of this breaker, oldest first")
+	public TabularData dumpRecentEvents()
+	{
+		TabularData table = new TabularDataSupport(CircuitBreakerEvent.TABULAR_TYPE);
+		for(CircuitBreakerEvent event : events.getEvents()) table.put(event.toCompositeData());
+		return table;
+	}
+
+	public List<CircuitBreakerEvent> getRecentEvents()
+	{
+		return events.getEvents();
+	}
+
+	@ManagedAttribute(description="Number of state changes kept in the recent history")
+	public int getEventHistorySize()
+	{
+		return events.getCapacity();
+	}
+
+	@ManagedAttribute(description="Number of trial calls let through at the same time when half-open")
+	public int getPermittedCallsInHalfOpenState()
+	{
+		return permittedCallsInHalfOpenState;
+	}
+
+	@ManagedAttribute(description="Number of trial calls that must succeed before a half-open breaker closes")
+	public int getSuccessfulCallsToClose()
+	{
+		return successfulCallsToClose;
+	}
+
+	@ManagedAttribute(description="Number of current failures in the closed state (in the sliding window, if one is used)")
+	public int getCurrentFailureCount()
+	{
+		return closedState.getCurrentFailureCount();
+	}
+
+	@ManagedAttribute(description="How failures are detected in the closed state: CONSECUTIVE, COUNT_WINDOW or TIME_WINDOW")
+	public String getFailureDetection()
+	{
+		return failureDetection.name();
+	}
+
+	@ManagedAttribute(description="Number of calls currently in the sliding window (0 if no window is used)")
+	public int getNumberOfBufferedCalls()
+	{
+		if(closedState instanceof SlidingWindowClosedState)
+			return ((SlidingWindowClosedState) closedState).getNumberOfBufferedCalls();
+		else
+			return 0;
+	}
+
+	@ManagedAttribute(description="Percentage of failed calls in the sliding window (0 if no window is used)")
+	public float getFailureRate()
+	{
+		if(closedState instanceof SlidingWindowClosedState)
+			return ((SlidingWindowClosedState) closedState).getFailureRate();
+		else
+			return 0;
+	}
+
+	@ManagedAttribute(description="Percentage of slow calls in the sliding window (0 if no window is used)")
+	public float getSlowCallRate()
+	{
+		if(closedState instanceof SlidingWindowClosedState)
+			return ((SlidingWindowClosedState) closedState).getSlowCallRate();
+		else
+			return 0;
+	}
+
+	@ManagedAttribute(description="Successful calls that take at least this many ms are slow calls (0 if slow calls aren't counted)")
+	public long getSlowCallDurationMs()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(slowCallDurationNanos);
+	}
+
+	@ManagedAttribute(description="Number of successful calls that took at least SlowCallDurationMs")
+	public long getNumberOfSlowCalls()
+	{
+		return slowCallCount.get();
+	}
+
+	@ManagedAttribute(description="Number of ms after which a call is abandoned (0 if calls have no timeout)")
+	public long getTimeoutMs()
+	{
+		return timeoutBulkhead == null ? 0 : timeoutBulkhead.getTimeoutMs();
+	}
+
+	@ManagedAttribute(description="Number of calls that were abandoned because they did not finish within the timeout")
+	public long getNumberOfTimeouts()
+	{
+		return timeoutBulkhead == null ? 0 : timeoutBulkhead.getTimeoutCount();
+	}
+
+	@ManagedAttribute(description="Number of rejected calls answered by the fallback method")
+	public long getNumberOfFallbacks()
+	{
+		return fallbackCount.get();
+	}
+
+	@ManagedAttribute(description="Number of rejected calls answered with the last known good result")
+	public long getNumberOfLastKnownGoodResponses()
+	{
+		return lastKnownGoodCount.get();
+	}
+
+	@ManagedAttribute(description="When in open state, the number of milliseconds until we try sending another request to the remote service")
+	public long getTimeToNextRetry()
+	{
+		if(state.get() == OPEN_STATE)
+			return OPEN_STATE.getTimeToNextRetry();
+		else
+			return 0;
+	}
+
+	@ManagedAttribute(description="Total times the circuit breaker has tripped")
+	public int getTotalNumberOfTrips()
+	{
+		return totalNumberOfTrips.get();
+	}
+
+	@ManagedAttribute(description="Current state of the circuit breaker. Closed State is normal, Open means errors.")
+	public String getCurrentState()
+	{
+		return getStateName(state.get());
+	}
+
+	private static String getStateName(ICircuitBreakerState current)
+	{
+		// the sliding window variant is still a closed breaker as far as the outside world is concerned
+		if(current instanceof ClosedState) return ClosedState.class.getSimpleName();
+		return current.getClass().getSimpleName();
+	}
+
+	@ManagedOperation(description="Reset the number of trips on this breaker to zero")
+	public void resetStatistics()
+	{
+		totalNumberOfTrips.set(0);
+		timeOfLastTrip.set(null);
+	}
+
+	@ManagedAttribute(description="Time of last trip")
+	public String getTimeOfLastTrip()
+	{
+		Date time = timeOfLastTrip.get();
+		if(time != null)
+		{
+			DateFormat df = DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.FULL);
+			return df.format(time);
+		}
+		else
+		{
+			return "";
+		}
+	}
+
+	Date getLastTripDate()
+	{
+		return timeOfLastTrip.get();
+	}
+
+	@ManagedAttribute(description="Time since the last trip, in seconds")
+	public long getTimeSinceLastTripInSeconds()
+	{
+		Date time = timeOfLastTrip.get();
+		if(time != null)
+		{
+			Date now = new Date();
+			return (now.getTime() - time.getTime())/1000;
+		}
+		else
+		{
+			return -1;
+		}
+	}
+
+	public GraphiteClient getGraphiteClient()
+	{
+		return graphiteClient;
+	}
+
+	public void setGraphiteClient(GraphiteClient graphiteClient)
+	{
+		this.graphiteClient = graphiteClient;
+	}
+
+	public List<ICircuitBreakerListener> getListeners()
+	{
+		return listeners;
+	}
+
+	public void setListeners(List<ICircuitBreakerListener> listeners)
+	{
+		this.listeners = List.copyOf(listeners);
+	}
+
+	public void setListenerExecutor(Executor listenerExecutor)
+	{
+		this.listenerExecutor = listenerExecutor;
+	}
+}
@@ -1,42 +1,66 @@
 package com.kendelong.util.circuitbreaker;
 
+import java.lang.reflect.Method;
 import java.text.DateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
 
-import org.apache.commons.lang3.StringUtils;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.core.annotation.Order;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedOperation;
 import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.ReflectionUtils;
 
+import com.kendelong.util.circuitbreaker.ExceptionClassifier.Classification;
 import com.kendelong.util.monitoring.graphite.GraphiteClient;
+import com.kendelong.util.spring.IKeyedManagedResourceProvider;
+import com.kendelong.util.spring.MethodNames;
 
 /**
- * This is the main Circuit Breaker class.  It is a stateful object, the state variable
- * refers to the current state re the GoF State Pattern.  This is modeled after the 
- * CB in "Release It" by Michael Nygard.
- * 
+ * This is the main Circuit Breaker aspect.  This is modeled after the CB in "Release It" by
+ * Michael Nygard.
+ *
  * The CB allows all calls to go through as long as they are succeeding. However, if the remote
  * service starts to fail, the breaker will trip and go open, and not allow any calls.  After
  * a bit, it will try the remote service again, and if it has recovered it will start sending
  * work again.  Otherwise, it goes back to Open state.
- * 
- * Note that a unique instance is created for each proxied service.
- * 
+ *
+ * By default the breaker trips after a run of consecutive failures.  A method can instead ask for
+ * a sliding window of recent calls (see {@link CircuitBreakable#failureDetection()}), in which case
+ * the breaker trips on the failure rate or slow call rate in that window.  Which exceptions count as
+ * failures is up to the annotation too (see {@link ExceptionClassifier}), as are counting slow successes
+ * as failures and giving up on calls that take too long.  When a breaker turns a call away, the caller
+ * can get the last known good result or the result of a fallback method instead (see {@link GuardedMethod}).
+ * Changes of state are kept in a short history per breaker and can be sent to {@link ICircuitBreakerListener}s,
+ * and to the other nodes of a cluster through a {@link CircuitBreakerGossip}.
+ *
+ * Note that a unique instance is created for each proxied service, and that instance keeps a
+ * registry of {@link CircuitBreaker}s, one per annotated method (or per {@link CircuitBreakable#name()}).
+ * The breakers are created lazily and cached.  The JMX attributes on the aspect summarize all of
+ * its breakers, and the operations apply to all of them; each breaker is also exported on its own
+ * by the JmxExportingAspectPostProcessor.
+ *
  * Configuration is like
  * <pre>
  * {@code
 	<bean class="com.kendelong.util.circuitbreaker.CircuitBreakerAspect" scope="prototype">
 		<property name="graphiteClient" ref="graphiteClient"/>
 	</bean>
-			
+
 	<bean id="aspectJmxExporter" class="com.kendelong.util.spring.JmxExportingAspectPostProcessor" lazy-init="false">
 		<property name="mbeanExporter" ref="mbeanExporter"/>
 		<property name="annotationToServiceNames">
@@ -48,173 +72,305 @@ import com.kendelong.util.monitoring.graphite.GraphiteClient;
 	</bean>
    }
    </pre>
- * 
- * See the javadoc for the individual states for deeper explanation.
- * 
- * {@link OpenState}
- * {@link ClosedState}
- * {@link HalfOpenState}
+ *
+ * {@link CircuitBreaker}
  *
  * @author kdelong
  */
 @Aspect
 @ManagedResource(description="Circuit Breaker for protecting ourselves against badly behaving remote services")
 @Order(200)
-public class CircuitBreakerAspect
-{	
-	private final AtomicReference<ICircuitBreakerState> state = new AtomicReference<ICircuitBreakerState>();
-	private final int DEFAULT_FAILURE_THRESHOLD = 3;
-	private final ClosedState CLOSED_STATE = new ClosedState();
-	private final OpenState OPEN_STATE = new OpenState();
-	
-	private final AtomicInteger totalNumberOfTrips = new AtomicInteger();
-	private final AtomicReference<Date> timeOfLastTrip = new AtomicReference<Date>();
-	
-	private final Logger logger = LoggerFactory.getLogger(this.getClass());
-	
+public class CircuitBreakerAspect implements IKeyedManagedResourceProvider
+{
+	private final ConcurrentMap<String, CircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Method, GuardedMethod> guardedMethods = new ConcurrentHashMap<>();
+
+	private volatile int failureThreshold = 3;
+	private volatile int recoveryTimeout = 60000;
+
+	private static final Executor VIRTUAL_THREADS = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("circuitbreaker-events-", 0).factory());
+
 	private GraphiteClient graphiteClient;
-	
-	private final ThreadLocal<String> keys = new ThreadLocal<String>();
-	
-	public CircuitBreakerAspect()
-	{
-		CLOSED_STATE.setFailureThreshold(DEFAULT_FAILURE_THRESHOLD);
-		state.set(CLOSED_STATE);
-	}
-	
-	@Around("@annotation(com.kendelong.util.circuitbreaker.CircuitBreakable)")
-	public Object applyCircuitBreaker(ProceedingJoinPoint pjp) throws Throwable
+	private List<ICircuitBreakerListener> listeners = List.of();
+	private Executor listenerExecutor = VIRTUAL_THREADS;
+	private CircuitBreakerGossip gossip;
+
+	@Around("@annotation(ann)")
+	public Object applyCircuitBreaker(ProceedingJoinPoint pjp, CircuitBreakable ann) throws Throwable
 	{
-		if(graphiteClient != null)
+		GuardedMethod guarded = getGuardedMethod(pjp, ann);
+		CircuitBreaker breaker = guarded.getCircuitBreaker();
+		breaker.recordAccess();
+
+		// the outcome goes back to the state that let the call through, even if the breaker has moved on since
+		ICircuitBreakerState admittedBy;
+		try
 		{
-			String methodKey = "circuitbreaker." + getMethodKey(pjp);
-			keys.set(methodKey);
-			graphiteClient.increment(methodKey + ".accesses");
+			admittedBy = breaker.getState().preInvoke(breaker);
 		}
-
+		catch(CircuitBreakerException e)
+		{
+			return guarded.degrade(pjp, e);
+		}
+		long startTime = System.nanoTime();
 		Object result = null;
 		try
 		{
-			getState().preInvoke(this);
-			result = pjp.proceed();
-			getState().postInvoke(this);
+			result = breaker.proceed(pjp);
 		}
 		catch(Throwable t)
 		{
-			getState().onError(this, t);
+			switch(t instanceof CircuitBreakerTimeoutException ? Classification.RECORD : breaker.classify(t))
+			{
+				case IGNORE:
+					admittedBy.onIgnoredError(breaker);
+					break;
+				case TRIP:
+					breaker.tripBreaker(admittedBy, t);
+					break;
+				default:
+					admittedBy.onError(breaker, t);
+			}
 			throw t;
 		}
-		finally
+		long elapsed = System.nanoTime() - startTime;
+		if(breaker.isFailedResult(result))
+			admittedBy.onFailedResult(breaker, result);
+		else
 		{
-			keys.remove();
+			admittedBy.postInvoke(breaker, elapsed);
+			if(guarded.isRememberingResults()) guarded.rememberResult(pjp.getArgs(), result);
 		}
 		return result;
 	}
 
-	private String getMethodKey(ProceedingJoinPoint pjp)
+	/**
+	 * Find the breaker for an annotated method, creating it the first time it's asked for.
+	 */
+	public CircuitBreaker getCircuitBreaker(Method method, CircuitBreakable ann)
+	{
+		return getGuardedMethod(method, ann).getCircuitBreaker();
+	}
+
+	/**
+	 * The breaker and fallbacks of the method a call is running.  They're cached under the signature's method
+	 * as well, which for a JDK proxy is the interface method; that's safe because each advised bean gets its
+	 * own instance of the aspect.
+	 */
+	private GuardedMethod getGuardedMethod(ProceedingJoinPoint pjp, CircuitBreakable ann)
+	{
+		Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+		GuardedMethod guarded = guardedMethods.get(method);
+		if(guarded == null)
+		{
+			guarded = getGuardedMethod(MethodNames.getTargetMethod(pjp), ann);
+			guardedMethods.putIfAbsent(method, guarded);
+		}
+		return guarded;
+	}
+
+	/**
+	 * The breaker and fallbacks of an annotated method, set up the first time it's asked for.  After that
+	 * it's a single lookup on the Method, with no string building, so the hot path doesn't allocate.
+	 */
+	GuardedMethod getGuardedMethod(Method method, CircuitBreakable ann)
 	{
-		String classKey = StringUtils.substringAfterLast(pjp.getSignature().getDeclaringTypeName(), ".");
-		String methodName = pjp.getSignature().getName();
-		String methodKey = classKey + "." + methodName;
-		return methodKey;
+		GuardedMethod guarded = guardedMethods.get(method);
+		if(guarded == null)
+		{
+			CircuitBreaker breaker = circuitBreakers.computeIfAbsent(getBreakerName(method, ann), k -> createCircuitBreaker(k, ann));
+			String different = breaker.findDifferentSetting(ann);
+			if(different != null)
+			{
+				throw new IllegalStateException(method + " shares the circuit breaker [" + breaker.getName() + "] with another method but has a different "
+						+ different + "; methods sharing a breaker need the same settings");
+			}
+			guarded = guardedMethods.computeIfAbsent(method, k -> new GuardedMethod(k, ann, breaker));
+		}
+		return guarded;
+	}
+
+	/**
+	 * The breaker with the given name, or null if no call has created it yet
+	 */
+	public CircuitBreaker getCircuitBreaker(String name)
+	{
+		return circuitBreakers.get(name);
+	}
+
+	private String getBreakerName(Method method, CircuitBreakable ann)
+	{
+		if(!ann.name().isEmpty()) return ann.name();
+		return MethodNames.getName(method);
 	}
 
-	private ICircuitBreakerState getState()
+	private CircuitBreaker createCircuitBreaker(String name, CircuitBreakable ann)
 	{
-		return state.get();
+		CircuitBreaker breaker = new CircuitBreaker(name, ann);
+		breaker.setFailureThreshold(failureThreshold);
+		breaker.setRecoveryTimeout(recoveryTimeout);
+		breaker.setGraphiteClient(graphiteClient);
+		breaker.setListeners(getBreakerListeners());
+		breaker.setListenerExecutor(listenerExecutor);
+		return breaker;
+	}
+
+	/**
+	 * Creates the breakers for every annotated method up front, so they can be exported to JMX before
+	 * the first call comes through.  This also binds the fallback methods, so a bad one fails at startup
+	 * rather than on its method's first call.
+	 */
+	@Override
+	public Map<String, Object> getKeyedManagedResources(Class<?> advisedClass)
+	{
+		Map<String, Object> resources = new LinkedHashMap<>();
+		for(Method method : ReflectionUtils.getUniqueDeclaredMethods(advisedClass, ReflectionUtils.USER_DECLARED_METHODS))
+		{
+			CircuitBreakable ann = method.getAnnotation(CircuitBreakable.class);
+			if(ann != null)
+			{
+				CircuitBreaker breaker = getCircuitBreaker(method, ann);
+				resources.put(breaker.getName(), breaker);
+			}
+		}
+		return resources;
 	}
 
 	@ManagedAttribute()
 	public void setFailureThreshold(int threshold)
 	{
-		CLOSED_STATE.setFailureThreshold(threshold);
+		failureThreshold = threshold;
+		circuitBreakers.values().forEach(breaker -> breaker.setFailureThreshold(threshold));
 	}
 
 	@ManagedAttribute(description="Number of sucessive failure before we trip the breaker")
 	public int getFailureThreshold()
 	{
-		return CLOSED_STATE.getFailureThreshold();
+		return failureThreshold;
 	}
 
-	@ManagedOperation(description="Open the circuit breaker (disallow calls to remote service)")
+	@ManagedOperation(description="Open all the circuit breakers (disallow calls to remote service)")
 	public void tripBreaker()
 	{
-		OPEN_STATE.trip();
-		state.set(OPEN_STATE);
-		timeOfLastTrip.set(new Date());
-		logger.warn("Circuit breaker tripped; going to OpenState");
-		totalNumberOfTrips.incrementAndGet();
-		if(graphiteClient != null) graphiteClient.increment(keys.get() + ".trips");
+		circuitBreakers.values().forEach(CircuitBreaker::tripBreaker);
 	}
 
 	@ManagedAttribute()
 	public void setRecoveryTimeout(int timeout)
 	{
-		OPEN_STATE.setRecoveryTimeout(timeout);
+		recoveryTimeout = timeout;
+		circuitBreakers.values().forEach(breaker -> breaker.setRecoveryTimeout(timeout));
 	}
-	
+
 	@ManagedAttribute(description="Number of milliseconds to wait before we try the remote service again")
 	public int getRecoveryTimeout()
 	{
-		return OPEN_STATE.getRecoveryTimeout();
+		return recoveryTimeout;
 	}
 
-	@ManagedOperation(description="Move to half-open state; try the remote service tentatively")
+	@ManagedOperation(description="Move all the breakers to half-open state; try the remote service tentatively")
 	public void attemptReset()
 	{
-		// there's no state to maintain in this one, so just create a new object
-		// there's not going to be that many of them
-		state.set(new HalfOpenState());
-		logger.info("Attempting reset; going HalfOpen");
+		circuitBreakers.values().forEach(CircuitBreaker::attemptReset);
 	}
 
-	@ManagedOperation(description="Reset the breaker and go closed (start using the remote service again)")
+	@ManagedOperation(description="Reset all the breakers and go closed (start using the remote service again)")
 	public void reset()
 	{
-		CLOSED_STATE.resetFailureCount();
-		state.set(CLOSED_STATE);
-		logger.info("Circuit breaker reset; all is happy again");
-		if(graphiteClient != null) graphiteClient.increment(keys.get() + ".resets");
+		circuitBreakers.values().forEach(CircuitBreaker::reset);
 	}
-	
-	@ManagedAttribute(description="Number of current failures in the closed state")
+
+	@ManagedAttribute(description="Number of current failures in the closed state, summed over all breakers")
 	public int getCurrentFailureCount()
 	{
-		return CLOSED_STATE.getCurrentFailureCount();
+		return circuitBreakers.values().stream().mapToInt(CircuitBreaker::getCurrentFailureCount).sum();
+	}
+
+	@ManagedAttribute(description="How failures are detected in the closed state of each breaker")
+	public String getFailureDetection()
+	{
+		StringBuilder sb = new StringBuilder();
+		circuitBreakers.forEach((k, v) -> sb.append(k).append(": ").append(v.getFailureDetection()).append("\n"));
+		return sb.toString();
+	}
+
+	@ManagedAttribute(description="Number of calls currently in the sliding windows, summed over all breakers")
+	public int getNumberOfBufferedCalls()
+	{
+		return circuitBreakers.values().stream().mapToInt(CircuitBreaker::getNumberOfBufferedCalls).sum();
+	}
+
+	@ManagedAttribute(description="Highest percentage of failed calls in any breaker's sliding window")
+	public float getFailureRate()
+	{
+		float rate = 0;
+		for(CircuitBreaker breaker : circuitBreakers.values()) rate = Math.max(rate, breaker.getFailureRate());
+		return rate;
+	}
+
+	@ManagedAttribute(description="Highest percentage of slow calls in any breaker's sliding window")
+	public float getSlowCallRate()
+	{
+		float rate = 0;
+		for(CircuitBreaker breaker : circuitBreakers.values()) rate = Math.max(rate, breaker.getSlowCallRate());
+		return rate;
 	}
-	
-	@ManagedAttribute(description="When in open state, the number of milliseconds until we try sending another request to the remote service")
+
+	@ManagedAttribute(description="Number of successful calls that were slow, summed over all breakers")
+	public long getNumberOfSlowCalls()
+	{
+		return circuitBreakers.values().stream().mapToLong(CircuitBreaker::getNumberOfSlowCalls).sum();
+	}
+
+	@ManagedAttribute(description="Number of calls abandoned because they did not finish within their timeout, summed over all breakers")
+	public long getNumberOfTimeouts()
+	{
+		return circuitBreakers.values().stream().mapToLong(CircuitBreaker::getNumberOfTimeouts).sum();
+	}
+
+	@ManagedAttribute(description="When any breaker is open, the number of milliseconds until the last of them tries the remote service again")
 	public long getTimeToNextRetry()
 	{
-		if(state.get() == OPEN_STATE)
-			return OPEN_STATE.getTimeToNextRetry();
-		else
-			return 0;
+		return circuitBreakers.values().stream().mapToLong(CircuitBreaker::getTimeToNextRetry).max().orElse(0);
 	}
-	
-	@ManagedAttribute(description="Total times the circuit breaker has tripped")
+
+	@ManagedAttribute(description="Total times the circuit breakers have tripped")
 	public int getTotalNumberOfTrips()
 	{
-		return totalNumberOfTrips.get();
+		return circuitBreakers.values().stream().mapToInt(CircuitBreaker::getTotalNumberOfTrips).sum();
 	}
-	
-	@ManagedAttribute(description="Current state of the circuit breaker. Closed State is normal, Open means errors.")
+
+	@ManagedAttribute(description="Worst state of any of the circuit breakers. Closed State is normal, Open means errors.")
 	public String getCurrentState()
 	{
-		return state.get().getClass().getSimpleName();
+		String worst = ClosedState.class.getSimpleName();
+		for(CircuitBreaker breaker : circuitBreakers.values())
+		{
+			String current = breaker.getCurrentState();
+			if(current.equals(OpenState.class.getSimpleName())) return current;
+			if(current.equals(HalfOpenState.class.getSimpleName())) worst = current;
+		}
+		return worst;
 	}
-	
-	@ManagedOperation(description="Reset the number of trips on this breaker to zero")
+
+	@ManagedAttribute(description="Current state of each circuit breaker")
+	public String getCircuitBreakerStates()
+	{
+		StringBuilder sb = new StringBuilder();
+		circuitBreakers.forEach((k, v) -> sb.append(k).append(": ").append(v.getCurrentState()).append("\n"));
+		return sb.toString();
+	}
+
+	@ManagedOperation(description="Reset the number of trips on all the breakers to zero")
 	public void resetStatistics()
 	{
-		totalNumberOfTrips.set(0);
-		timeOfLastTrip.set(null);
+		circuitBreakers.values().forEach(CircuitBreaker::resetStatistics);
 	}
-	
-	@ManagedAttribute(description="Time of last trip")
+
+	@ManagedAttribute(description="Time of the most recent trip of any breaker")
 	public String getTimeOfLastTrip()
 	{
-		Date time = timeOfLastTrip.get();
+		Date time = getLastTripDate();
 		if(time != null)
 		{
 			DateFormat df = DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.FULL);
@@ -223,13 +379,13 @@ public class CircuitBreakerAspect
 		else
 		{
 			return "";
-		}		
+		}
 	}
-	
-	@ManagedAttribute(description="Time since the last trip, in seconds")
+
+	@ManagedAttribute(description="Time since the most recent trip of any breaker, in seconds")
 	public long getTimeSinceLastTripInSeconds()
 	{
-		Date time = timeOfLastTrip.get();
+		Date time = getLastTripDate();
 		if(time != null)
 		{
 			Date now = new Date();
@@ -241,6 +397,33 @@ public class CircuitBreakerAspect
 		}
 	}
 
+	private Date getLastTripDate()
+	{
+		Date latest = null;
+		for(CircuitBreaker breaker : circuitBreakers.values())
+		{
+			Date time = breaker.getLastTripDate();
+			if(time != null && (latest == null || time.after(latest))) latest = time;
+		}
+		return latest;
+	}
+
+	@ManagedOperation(description="The most recent changes of state of all the breakers")
+	public TabularData dumpRecentEvents()
+	{
+		TabularData table = new TabularDataSupport(CircuitBreakerEvent.TABULAR_TYPE);
+		for(CircuitBreaker breaker : circuitBreakers.values())
+		{
+			for(CircuitBreakerEvent event : breaker.getRecentEvents()) table.put(event.toCompositeData());
+		}
+		return table;
+	}
+
+	public Map<String, CircuitBreaker> getCircuitBreakers()
+	{
+		return circuitBreakers;
+	}
+
 	public GraphiteClient getGraphiteClient()
 	{
 		return graphiteClient;
@@ -249,5 +432,59 @@ public class CircuitBreakerAspect
 	public void setGraphiteClient(GraphiteClient graphiteClient)
 	{
 		this.graphiteClient = graphiteClient;
+		circuitBreakers.values().forEach(breaker -> breaker.setGraphiteClient(graphiteClient));
+	}
+
+	public List<ICircuitBreakerListener> getListeners()
+	{
+		return listeners;
+	}
+
+	/**
+	 * Told about every change of state of every breaker, asynchronously on the listenerExecutor
+	 */
+	public void setListeners(List<ICircuitBreakerListener> listeners)
+	{
+		this.listeners = List.copyOf(listeners);
+		List<ICircuitBreakerListener> breakerListeners = getBreakerListeners();
+		circuitBreakers.values().forEach(breaker -> breaker.setListeners(breakerListeners));
+	}
+
+	private List<ICircuitBreakerListener> getBreakerListeners()
+	{
+		if(gossip == null) return listeners;
+		List<ICircuitBreakerListener> all = new ArrayList<>(listeners);
+		all.add(gossip);
+		return all;
+	}
+
+	public CircuitBreakerGossip getGossip()
+	{
+		return gossip;
+	}
+
+	/**
+	 * Share the state changes of this aspect's breakers with other nodes, and follow theirs
+	 */
+	public void setGossip(CircuitBreakerGossip gossip)
+	{
+		this.gossip = gossip;
+		gossip.register(this);
+		List<ICircuitBreakerListener> breakerListeners = getBreakerListeners();
+		circuitBreakers.values().forEach(breaker -> breaker.setListeners(breakerListeners));
+	}
+
+	public Executor getListenerExecutor()
+	{
+		return listenerExecutor;
+	}
+
+	/**
+	 * Where listeners are called; a new virtual thread for each batch of events by default
+	 */
+	public void setListenerExecutor(Executor listenerExecutor)
+	{
+		this.listenerExecutor = listenerExecutor;
+		circuitBreakers.values().forEach(breaker -> breaker.setListenerExecutor(listenerExecutor));
 	}
 }
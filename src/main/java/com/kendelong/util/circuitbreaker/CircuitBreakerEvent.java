@@ -0,0 +1,157 @@
+package com.kendelong.util.circuitbreaker;
+
+import java.util.Date;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularType;
+
+/**
+ * One change of state of a {@link CircuitBreaker}: which way it went, when, the exception that caused it
+ * (null for manual changes, failed results and slow calls), and how many failures the breaker had counted
+ * at the time.  If the breaker was following another node, the origin is the node that reported the change.
+ * The sequence number is per breaker and goes up by one with each change, so gaps show events that dropped
+ * out of the history.
+ *
+ * Events are kept in each breaker's {@link CircuitBreakerEventBuffer}, handed to the
+ * {@link ICircuitBreakerListener}s, and exported to JMX as open data (see {@link #toCompositeData()}).
+ *
+ * @author kdelong
+ */
+public class CircuitBreakerEvent
+{
+	public enum Transition
+	{
+		/** went to OpenState; calls fail fast */
+		OPENED,
+		/** went to HalfOpenState; trial calls go through */
+		HALF_OPENED,
+		/** went to ClosedState; all is happy again */
+		CLOSED
+	}
+
+	private static final String[] ITEM_NAMES = { "breaker", "sequence", "time", "transition", "fromState", "exceptionType", "failureCount",
+			"origin" };
+	private static final String[] ITEM_DESCRIPTIONS = { "The circuit breaker", "Number of the change for this breaker", "When it changed",
+			"OPENED, HALF_OPENED or CLOSED", "The state it left", "Class of the exception that caused the change, if any",
+			"Failures counted in the closed state at the time", "The node whose report caused the change, if not this one" };
+
+	public static final CompositeType COMPOSITE_TYPE;
+	public static final TabularType TABULAR_TYPE;
+	static
+	{
+		try
+		{
+			OpenType<?>[] itemTypes = { SimpleType.STRING, SimpleType.LONG, SimpleType.DATE, SimpleType.STRING, SimpleType.STRING,
+					SimpleType.STRING, SimpleType.INTEGER, SimpleType.STRING };
+			COMPOSITE_TYPE = new CompositeType("CircuitBreakerEvent", "A change of state of a circuit breaker", ITEM_NAMES, ITEM_DESCRIPTIONS, itemTypes);
+			TABULAR_TYPE = new TabularType("CircuitBreakerEvents", "Recent changes of state of circuit breakers", COMPOSITE_TYPE,
+					new String[] { "breaker", "sequence" });
+		}
+		catch(OpenDataException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private final String breakerName;
+	private final long sequence;
+	private final long timestamp;
+	private final Transition transition;
+	private final String fromState;
+	private final String exceptionType;
+	private final int failureCount;
+	private final String origin;
+
+	public CircuitBreakerEvent(String breakerName, long sequence, long timestamp, Transition transition, String fromState,
+			Throwable cause, int failureCount)
+	{
+		this(breakerName, sequence, timestamp, transition, fromState, cause, failureCount, null);
+	}
+
+	public CircuitBreakerEvent(String breakerName, long sequence, long timestamp, Transition transition, String fromState,
+			Throwable cause, int failureCount, String origin)
+	{
+		this.breakerName = breakerName;
+		this.sequence = sequence;
+		this.timestamp = timestamp;
+		this.transition = transition;
+		this.fromState = fromState;
+		this.exceptionType = cause == null ? null : cause.getClass().getName();
+		this.failureCount = failureCount;
+		this.origin = origin;
+	}
+
+	public String getBreakerName()
+	{
+		return breakerName;
+	}
+
+	public long getSequence()
+	{
+		return sequence;
+	}
+
+	/**
+	 * Time of the change, in ms since the epoch
+	 */
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	public Transition getTransition()
+	{
+		return transition;
+	}
+
+	public String getFromState()
+	{
+		return fromState;
+	}
+
+	/**
+	 * Class name of the exception that caused the change, or null
+	 */
+	public String getExceptionType()
+	{
+		return exceptionType;
+	}
+
+	public int getFailureCount()
+	{
+		return failureCount;
+	}
+
+	/**
+	 * The node that reported the change this breaker followed, or null if the change happened here
+	 */
+	public String getOrigin()
+	{
+		return origin;
+	}
+
+	public CompositeData toCompositeData()
+	{
+		Object[] values = { breakerName, sequence, new Date(timestamp), transition.name(), fromState, exceptionType, failureCount, origin };
+		try
+		{
+			return new CompositeDataSupport(COMPOSITE_TYPE, ITEM_NAMES, values);
+		}
+		catch(OpenDataException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return breakerName + " #" + sequence + " " + fromState + " -> " + transition + (exceptionType == null ? "" : " (" + exceptionType + ")")
+				+ (origin == null ? "" : " from " + origin);
+	}
+}
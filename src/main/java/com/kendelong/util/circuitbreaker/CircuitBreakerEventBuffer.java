@@ -0,0 +1,69 @@
+package com.kendelong.util.circuitbreaker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recent state changes of one breaker, in a fixed-size ring.  Adding an event takes a slot with
+ * one atomic increment and writes it, overwriting the oldest, so a flapping breaker never blocks on its
+ * own history.  A reader racing with writers may miss an event that is being overwritten; it never sees
+ * one twice or out of order.
+ *
+ * @author kdelong
+ */
+public class CircuitBreakerEventBuffer
+{
+	private final AtomicReferenceArray<CircuitBreakerEvent> events;
+	private final AtomicLong nextSequence = new AtomicLong();
+
+	public CircuitBreakerEventBuffer(int capacity)
+	{
+		if(capacity <= 0) throw new IllegalArgumentException("Event buffer capacity must be positive, not " + capacity);
+		events = new AtomicReferenceArray<>(capacity);
+	}
+
+	/**
+	 * Hands out the sequence number of the next event; pass the event built with it to {@link #add(CircuitBreakerEvent)}
+	 */
+	long nextSequence()
+	{
+		return nextSequence.getAndIncrement();
+	}
+
+	void add(CircuitBreakerEvent event)
+	{
+		events.set((int) (event.getSequence() % events.length()), event);
+	}
+
+	/**
+	 * The events still in the ring, oldest first
+	 */
+	public List<CircuitBreakerEvent> getEvents()
+	{
+		long end = nextSequence.get();
+		long start = Math.max(0, end - events.length());
+		List<CircuitBreakerEvent> recent = new ArrayList<>((int) (end - start));
+		for(long sequence = start; sequence < end; sequence++)
+		{
+			CircuitBreakerEvent event = events.get((int) (sequence % events.length()));
+			// null or a different sequence: not written yet, or already overwritten by a newer one
+			if(event != null && event.getSequence() == sequence) recent.add(event);
+		}
+		return recent;
+	}
+
+	public int getCapacity()
+	{
+		return events.length();
+	}
+
+	/**
+	 * Number of events ever added, including the ones that have dropped out of the ring
+	 */
+	public long getTotalEvents()
+	{
+		return nextSequence.get();
+	}
+}
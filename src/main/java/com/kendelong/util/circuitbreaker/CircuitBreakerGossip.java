@@ -0,0 +1,484 @@
+package com.kendelong.util.circuitbreaker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import com.kendelong.util.circuitbreaker.CircuitBreakerEvent.Transition;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Shares the state changes of circuit breakers between the nodes of a cluster, so that when one node finds
+ * a remote service dead the others open their breakers too, instead of each sending failureThreshold doomed
+ * requests of its own.  When a node's breaker goes half-open, the open breakers of the same name on the
+ * other nodes go half-open as well, so they stop waiting out their own recovery timeouts.
+ *
+ * Each change is sent as a small UDP datagram (node id, breaker name, transition, epoch) to a multicast group,
+ * or to a list of peers if multicast isn't available.  A node's epochs go up with each change it sends and
+ * start from the wall clock, so they keep going up when the node restarts.  Receivers keep the highest epoch
+ * they have seen from each node for each breaker, and drop a datagram that isn't newer as late or duplicated.
+ * Nodes that haven't been heard from for nodeExpiryMs are forgotten, and at most maxNodes are remembered (the
+ * ones heard from longest ago go first), so restarted nodes with new random ids don't pile up.  A datagram whose
+ * epoch is more than nodeExpiryMs behind this node's clock is dropped as stale too, so the nodes' clocks need
+ * to agree to well within that.
+ * Changes a breaker made because of a datagram are not sent on, so reports don't echo around the cluster.
+ * Delivery is best effort; a lost datagram only means that node finds out the usual way.
+ *
+ * With a sharedSecret every datagram carries an HMAC-SHA256 of its contents, and datagrams without a good one
+ * are dropped.  The epochs then stop a captured datagram from being replayed: within nodeExpiryMs because the
+ * receiver remembers a newer epoch, and after that because the epoch is too old.  Only the time window still
+ * protects a receiver that has just restarted or forgotten the sender, so a datagram captured in the last
+ * nodeExpiryMs can be replayed to it once.  Without a secret,
+ * anybody who can send a datagram to the port can open every breaker on the node, so only leave it out on a
+ * network where nothing else can reach the port.
+ *
+ * Breakers are matched by name, so give the breakers that guard the same remote service the same name on
+ * every node.  Configuration is like
+ * <pre>
+ * {@code
+	<bean id="circuitBreakerGossip" class="com.kendelong.util.circuitbreaker.CircuitBreakerGossip">
+		<property name="port" value="45678"/>
+		<property name="multicastGroup" value="239.255.42.1"/>
+		<property name="sharedSecret" value="${circuitbreaker.gossip.secret}"/>
+	</bean>
+
+	<bean class="com.kendelong.util.circuitbreaker.CircuitBreakerAspect" scope="prototype">
+		<property name="gossip" ref="circuitBreakerGossip"/>
+	</bean>
+   }
+   </pre>
+ *
+ * @author kdelong
+ */
+@ManagedResource(description="Shares circuit breaker state changes with the other nodes of the cluster")
+public class CircuitBreakerGossip implements ICircuitBreakerListener
+{
+	private static final byte VERSION = 2;
+	private static final int MAX_DATAGRAM_SIZE = 512;
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final int MAC_LENGTH = 32;
+
+	private final List<CircuitBreakerAspect> aspects = new CopyOnWriteArrayList<>();
+	// the last epoch this node sent
+	private final AtomicLong clock = new AtomicLong();
+	// the highest epoch seen from each node, for each breaker
+	private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<>();
+	private long nodeExpiryMs = TimeUnit.MINUTES.toMillis(10);
+	private int maxNodes = 1000;
+	// only the receiver thread handles datagrams, so this needs no locking
+	private long nextExpiry;
+	private SecretKeySpec sharedSecret;
+
+	private String nodeId = UUID.randomUUID().toString().substring(0, 8);
+	private int port;
+	private String multicastGroup;
+	private String networkInterface;
+	private volatile List<InetSocketAddress> peers = List.of();
+
+	private DatagramSocket socket;
+	private InetSocketAddress group;
+	private Thread receiver;
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong followed = new AtomicLong();
+	private final AtomicLong stale = new AtomicLong();
+	private final AtomicLong unauthenticated = new AtomicLong();
+	private final AtomicLong malformed = new AtomicLong();
+
+	private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+	@PostConstruct
+	public void start() throws IOException
+	{
+		if(multicastGroup != null && !multicastGroup.isEmpty())
+		{
+			MulticastSocket multicastSocket = new MulticastSocket(port);
+			group = new InetSocketAddress(InetAddress.getByName(multicastGroup), port);
+			NetworkInterface ni = networkInterface == null ? null : NetworkInterface.getByName(networkInterface);
+			multicastSocket.joinGroup(group, ni);
+			socket = multicastSocket;
+		}
+		else
+		{
+			socket = new DatagramSocket(port);
+		}
+		receiver = Thread.ofVirtual().name("circuitbreaker-gossip-" + nodeId).start(this::receive);
+		logger.info("Circuit breaker gossip for node [{}] listening on port [{}]", nodeId, socket.getLocalPort());
+		if(sharedSecret == null)
+		{
+			logger.warn("Circuit breaker gossip has no shared secret; anybody who can reach port [{}] can open the breakers", socket.getLocalPort());
+		}
+	}
+
+	@PreDestroy
+	public void stop()
+	{
+		if(socket != null) socket.close();
+		if(receiver != null) receiver.interrupt();
+	}
+
+	/**
+	 * Called by {@link CircuitBreakerAspect#setGossip(CircuitBreakerGossip)}; the breakers of the aspect are
+	 * looked up by name when a datagram arrives
+	 */
+	void register(CircuitBreakerAspect aspect)
+	{
+		aspects.add(aspect);
+	}
+
+	@Override
+	public void onStateTransition(CircuitBreakerEvent event)
+	{
+		// a change this node only followed came from a datagram; the other nodes have had it already
+		if(event.getOrigin() != null) return;
+		byte[] datagram = encode(event.getBreakerName(), event.getTransition(), nextEpoch());
+		if(datagram == null) return;
+		if(group != null) send(datagram, group);
+		for(InetSocketAddress peer : peers) send(datagram, peer);
+	}
+
+	/**
+	 * The epoch of the next change this node sends: one more than the last, or the time if that's later
+	 */
+	long nextEpoch()
+	{
+		long now = getTime();
+		return clock.accumulateAndGet(now, (last, time) -> Math.max(last + 1, time));
+	}
+
+	protected long getTime()
+	{
+		return System.currentTimeMillis();
+	}
+
+	byte[] encode(String breakerName, Transition transition, long epoch)
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		try(DataOutputStream out = new DataOutputStream(bytes))
+		{
+			out.writeByte(VERSION);
+			out.writeUTF(nodeId);
+			out.writeUTF(breakerName);
+			out.writeByte(transition.ordinal());
+			out.writeLong(epoch);
+			if(sharedSecret != null) out.write(sign(bytes.toByteArray(), bytes.size()));
+		}
+		catch(IOException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		if(bytes.size() > MAX_DATAGRAM_SIZE)
+		{
+			logger.warn("Circuit breaker name [{}] is too long to gossip", breakerName);
+			return null;
+		}
+		return bytes.toByteArray();
+	}
+
+	private void send(byte[] datagram, InetSocketAddress to)
+	{
+		try
+		{
+			socket.send(new DatagramPacket(datagram, datagram.length, to));
+			sent.incrementAndGet();
+		}
+		catch(IOException e)
+		{
+			logger.warn("Could not send circuit breaker gossip to [{}]: {}", to, e.toString());
+		}
+	}
+
+	private void receive()
+	{
+		byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+		while(!socket.isClosed())
+		{
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try
+			{
+				socket.receive(packet);
+			}
+			catch(SocketException e)
+			{
+				// closed by stop()
+				return;
+			}
+			catch(IOException e)
+			{
+				logger.warn("Could not receive circuit breaker gossip: {}", e.toString());
+				continue;
+			}
+			handle(packet.getData(), packet.getLength(), packet.getSocketAddress());
+		}
+	}
+
+	/**
+	 * Follow the change in a datagram, unless it's our own, stale, not signed with the shared secret, or not a
+	 * datagram of ours at all
+	 */
+	void handle(byte[] data, int length, SocketAddress from)
+	{
+		try
+		{
+			if(sharedSecret != null)
+			{
+				length -= MAC_LENGTH;
+				if(length <= 0 || !MessageDigest.isEqual(sign(data, length), Arrays.copyOfRange(data, length, length + MAC_LENGTH)))
+				{
+					unauthenticated.incrementAndGet();
+					logger.warn("Unsigned circuit breaker gossip from [{}] dropped", from);
+					return;
+				}
+			}
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 0, length));
+			if(in.readByte() != VERSION) throw new IOException("not version " + VERSION);
+			String origin = in.readUTF();
+			// multicast loops our own datagrams back to us
+			if(origin.equals(nodeId)) return;
+			String breakerName = in.readUTF();
+			Transition transition = Transition.values()[in.readByte()];
+			long epoch = in.readLong();
+			received.incrementAndGet();
+
+			long now = getTime();
+			Node node = nodes.computeIfAbsent(origin, k -> new Node());
+			node.lastHeard = now;
+			forgetNodes(now, origin);
+			AtomicLong known = node.epochs.computeIfAbsent(breakerName, k -> new AtomicLong());
+			if(epoch < now - nodeExpiryMs || known.getAndAccumulate(epoch, Math::max) >= epoch)
+			{
+				stale.incrementAndGet();
+				return;
+			}
+			for(CircuitBreakerAspect aspect : aspects)
+			{
+				CircuitBreaker breaker = aspect.getCircuitBreaker(breakerName);
+				if(breaker != null && breaker.followPeer(transition, origin)) followed.incrementAndGet();
+			}
+		}
+		catch(IOException | RuntimeException e)
+		{
+			malformed.incrementAndGet();
+			logger.warn("Bad circuit breaker gossip from [{}]: {}", from, e.toString());
+		}
+	}
+
+	/**
+	 * Drop the nodes not heard from for nodeExpiryMs (checked every tenth of that), and the ones heard from longest
+	 * ago when there are more than maxNodes; never the node that was just heard from
+	 */
+	private void forgetNodes(long now, String current)
+	{
+		if(now >= nextExpiry)
+		{
+			nextExpiry = now + Math.max(1, nodeExpiryMs / 10);
+			nodes.values().removeIf(node -> now - node.lastHeard > nodeExpiryMs);
+		}
+		int excess = nodes.size() - maxNodes;
+		if(excess <= 0) return;
+		nodes.entrySet().stream()
+				.filter(e -> !e.getKey().equals(current))
+				.sorted(Comparator.comparingLong(e -> e.getValue().lastHeard))
+				.limit(excess)
+				.map(Map.Entry::getKey)
+				.toList()
+				.forEach(nodes::remove);
+	}
+
+	private byte[] sign(byte[] data, int length)
+	{
+		try
+		{
+			// a Mac isn't thread safe, and changes are rare enough not to bother pooling them
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(sharedSecret);
+			mac.update(data, 0, length);
+			return mac.doFinal();
+		}
+		catch(GeneralSecurityException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Secret shared by all the nodes, used to sign the datagrams; set the same one everywhere
+	 */
+	public void setSharedSecret(String sharedSecret)
+	{
+		this.sharedSecret = sharedSecret == null || sharedSecret.isEmpty() ? null : new SecretKeySpec(sharedSecret.getBytes(StandardCharsets.UTF_8), MAC_ALGORITHM);
+	}
+
+	@ManagedAttribute(description="Whether the datagrams are signed with a shared secret")
+	public boolean isSigned()
+	{
+		return sharedSecret != null;
+	}
+
+	/**
+	 * How long to remember a node that has gone quiet, and how far behind this node's clock an epoch may be; 10
+	 * minutes by default
+	 */
+	public void setNodeExpiryMs(long nodeExpiryMs)
+	{
+		this.nodeExpiryMs = nodeExpiryMs;
+	}
+
+	/**
+	 * Most nodes to remember the epochs of; 1000 by default
+	 */
+	public void setMaxNodes(int maxNodes)
+	{
+		this.maxNodes = maxNodes;
+	}
+
+	@ManagedAttribute(description="Number of other nodes whose epochs are remembered")
+	public int getNumberOfKnownNodes()
+	{
+		return nodes.size();
+	}
+
+	@ManagedAttribute(description="Id of this node in the datagrams")
+	public String getNodeId()
+	{
+		return nodeId;
+	}
+
+	public void setNodeId(String nodeId)
+	{
+		this.nodeId = nodeId;
+	}
+
+	/**
+	 * The port actually listened on, which is a free one if the port was set to 0
+	 */
+	@ManagedAttribute(description="UDP port the gossip is received on")
+	public int getLocalPort()
+	{
+		return socket == null ? port : socket.getLocalPort();
+	}
+
+	public void setPort(int port)
+	{
+		this.port = port;
+	}
+
+	public String getMulticastGroup()
+	{
+		return multicastGroup;
+	}
+
+	public void setMulticastGroup(String multicastGroup)
+	{
+		this.multicastGroup = multicastGroup;
+	}
+
+	/**
+	 * Name of the network interface to join the multicast group on; the system's choice if not set
+	 */
+	public void setNetworkInterface(String networkInterface)
+	{
+		this.networkInterface = networkInterface;
+	}
+
+	@ManagedAttribute(description="Peers the gossip is sent to, besides the multicast group")
+	public String getPeers()
+	{
+		return peers.toString();
+	}
+
+	/**
+	 * Peers as "host:port"; can be changed while running
+	 */
+	public void setPeers(List<String> peers)
+	{
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		for(String peer : peers)
+		{
+			int separator = peer.lastIndexOf(':');
+			if(separator <= 0) throw new IllegalArgumentException("Peers look like host:port, not " + peer);
+			addresses.add(new InetSocketAddress(peer.substring(0, separator).trim(), Integer.parseInt(peer.substring(separator + 1).trim())));
+		}
+		this.peers = List.copyOf(addresses);
+	}
+
+	@ManagedAttribute(description="Number of datagrams sent")
+	public long getNumberOfDatagramsSent()
+	{
+		return sent.get();
+	}
+
+	@ManagedAttribute(description="Number of datagrams received from other nodes")
+	public long getNumberOfDatagramsReceived()
+	{
+		return received.get();
+	}
+
+	@ManagedAttribute(description="Number of times a breaker here changed state because of another node")
+	public long getNumberOfChangesFollowed()
+	{
+		return followed.get();
+	}
+
+	@ManagedAttribute(description="Number of datagrams dropped because a newer change of the breaker from the same node was already known, or they were too old")
+	public long getNumberOfStaleDatagrams()
+	{
+		return stale.get();
+	}
+
+	@ManagedAttribute(description="Number of datagrams dropped because they weren't signed with the shared secret")
+	public long getNumberOfUnauthenticatedDatagrams()
+	{
+		return unauthenticated.get();
+	}
+
+	@ManagedAttribute(description="Number of datagrams dropped because they couldn't be read")
+	public long getNumberOfMalformedDatagrams()
+	{
+		return malformed.get();
+	}
+
+	/**
+	 * What we know of another node: the highest epoch it has sent for each breaker, and when we last heard from it
+	 */
+	private static class Node
+	{
+		private final ConcurrentMap<String, AtomicLong> epochs = new ConcurrentHashMap<>();
+		private volatile long lastHeard;
+	}
+}
@@ -0,0 +1,22 @@
+package com.kendelong.util.circuitbreaker;
+
+/**
+ * Thrown when a call through a breaker with a timeout doesn't finish in time.  It always counts as a
+ * failure of the remote service, whatever the exception lists say.
+ *
+ * @author kdelong
+ */
+public class CircuitBreakerTimeoutException extends CircuitBreakerException
+{
+
+	public CircuitBreakerTimeoutException(String message)
+	{
+		super(message);
+	}
+
+	public CircuitBreakerTimeoutException(String message, Throwable cause)
+	{
+		super(message, cause);
+	}
+
+}
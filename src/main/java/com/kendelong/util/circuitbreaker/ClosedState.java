@@ -7,7 +7,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * This is a "closed" circuit breaker, i.e. operational, that passes all calls on to the
  * intercepted object.  If the calls are failing (throwing exceptions), if we count 
  * "failureThreshold" exceptions in a row, we trip the breaker and go to Open state.
- * If a successful call arrives we reset the count of errors. 
+ * If a successful call arrives we reset the count of errors, unless it was a slow call, which
+ * counts as an error.
  *
  * @author kdelong
  */
@@ -16,14 +17,17 @@ public class ClosedState implements ICircuitBreakerState
 	private AtomicInteger failureThreshold = new AtomicInteger();
 	private AtomicInteger failureCount = new AtomicInteger();
 
-	public void preInvoke(CircuitBreakerAspect circuitBreakerAspect) throws Throwable
+	public ICircuitBreakerState preInvoke(CircuitBreaker circuitBreaker) throws Throwable
 	{
-		// NO OP
+		return this;
 	}
 
-	public void postInvoke(CircuitBreakerAspect circuitBreakerAspect) throws Throwable
+	public void postInvoke(CircuitBreaker circuitBreaker, long elapsedNanos) throws Throwable
 	{
-		resetFailureCount();
+		if(circuitBreaker.isSlowCall(elapsedNanos))
+			onError(circuitBreaker, null);
+		else
+			resetFailureCount();
 	}
 
 	void resetFailureCount()
@@ -31,12 +35,12 @@ public class ClosedState implements ICircuitBreakerState
 		failureCount.set(0);
 	}
 
-	public void onError(CircuitBreakerAspect circuitBreakerAspect, Throwable t) throws Throwable
+	public void onError(CircuitBreaker circuitBreaker, Throwable t) throws Throwable
 	{
 		int currentCount = failureCount.incrementAndGet();
 		int threshold = failureThreshold.get();
 		if(currentCount >= threshold)
-			circuitBreakerAspect.tripBreaker();
+			circuitBreaker.tripBreaker(this, t);
 	}
 
 	
@@ -0,0 +1,81 @@
+package com.kendelong.util.circuitbreaker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A ring buffer holding the outcome of the last "size" calls.  Each slot is swapped atomically
+ * and the running totals are adjusted by the difference between the old and new outcome, so
+ * recording a call and reading the totals are both constant time.
+ *
+ * @author kdelong
+ */
+public class CountBasedSlidingWindow implements ISlidingWindow
+{
+	private static final int RECORDED = 1;
+	private static final int FAILED = 2;
+	private static final int SLOW = 4;
+
+	private final int size;
+	private final AtomicIntegerArray outcomes;
+	private final AtomicLong cursor = new AtomicLong();
+
+	private final AtomicInteger calls = new AtomicInteger();
+	private final AtomicInteger failedCalls = new AtomicInteger();
+	private final AtomicInteger slowCalls = new AtomicInteger();
+
+	public CountBasedSlidingWindow(int size)
+	{
+		if(size < 1) throw new IllegalArgumentException("Window size must be positive, was " + size);
+		this.size = size;
+		outcomes = new AtomicIntegerArray(size);
+	}
+
+	public void record(boolean failed, boolean slow)
+	{
+		int outcome = RECORDED;
+		if(failed) outcome |= FAILED;
+		if(slow) outcome |= SLOW;
+
+		int index = (int) (cursor.getAndIncrement() % size);
+		int previous = outcomes.getAndSet(index, outcome);
+		adjustTotals(previous, -1);
+		adjustTotals(outcome, 1);
+	}
+
+	private void adjustTotals(int outcome, int delta)
+	{
+		if((outcome & RECORDED) == 0) return;
+		calls.addAndGet(delta);
+		if((outcome & FAILED) != 0) failedCalls.addAndGet(delta);
+		if((outcome & SLOW) != 0) slowCalls.addAndGet(delta);
+	}
+
+	public int getNumberOfCalls()
+	{
+		return calls.get();
+	}
+
+	public int getNumberOfFailedCalls()
+	{
+		return failedCalls.get();
+	}
+
+	public int getNumberOfSlowCalls()
+	{
+		return slowCalls.get();
+	}
+
+	public void reset()
+	{
+		// Empty each slot the same way record() replaces it, so a concurrent record can't unbalance the totals
+		for(int i = 0; i < size; i++)
+		{
+			int previous = outcomes.getAndSet(i, 0);
+			adjustTotals(previous, -1);
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+package com.kendelong.util.circuitbreaker;
+
+/**
+ * Decides what an exception thrown through a breaker means for the remote service.  Business exceptions
+ * (validation errors, "not found") say nothing about its health, so they can be ignored; some failures
+ * (an authentication failure, say) mean there's no point trying again until someone fixes something, so
+ * they can trip the breaker at once.  Subclasses match too.  The trip list wins over the ignore list, and
+ * the ignore list over the record list; an empty record list records everything.
+ *
+ * The answer is worked out once per exception class and memoized in a ClassValue, so the error path stays
+ * cheap under a failure storm.
+ *
+ * @author kdelong
+ */
+public class ExceptionClassifier
+{
+	public enum Classification
+	{
+		/** Count it as a failure of the remote service */
+		RECORD,
+		/** Pass it on without counting it either way */
+		IGNORE,
+		/** Open the breaker at once */
+		TRIP
+	}
+
+	private final Class<? extends Throwable>[] recordExceptions;
+	private final Class<? extends Throwable>[] ignoreExceptions;
+	private final Class<? extends Throwable>[] tripExceptions;
+
+	private final ClassValue<Classification> classifications = new ClassValue<Classification>()
+	{
+		@Override
+		protected Classification computeValue(Class<?> type)
+		{
+			if(matches(tripExceptions, type)) return Classification.TRIP;
+			if(matches(ignoreExceptions, type)) return Classification.IGNORE;
+			if(recordExceptions.length == 0 || matches(recordExceptions, type)) return Classification.RECORD;
+			return Classification.IGNORE;
+		}
+	};
+
+	public ExceptionClassifier(Class<? extends Throwable>[] recordExceptions, Class<? extends Throwable>[] ignoreExceptions,
+			Class<? extends Throwable>[] tripExceptions)
+	{
+		this.recordExceptions = recordExceptions.clone();
+		this.ignoreExceptions = ignoreExceptions.clone();
+		this.tripExceptions = tripExceptions.clone();
+	}
+
+	public Classification classify(Throwable t)
+	{
+		return classifications.get(t.getClass());
+	}
+
+	private static boolean matches(Class<? extends Throwable>[] types, Class<?> type)
+	{
+		for(Class<? extends Throwable> candidate : types)
+		{
+			if(candidate.isAssignableFrom(type)) return true;
+		}
+		return false;
+	}
+}
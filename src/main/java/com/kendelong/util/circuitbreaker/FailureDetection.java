@@ -0,0 +1,24 @@
+package com.kendelong.util.circuitbreaker;
+
+/**
+ * How the closed state decides that the remote service is failing.
+ *
+ * @author kdelong
+ */
+public enum FailureDetection
+{
+	/**
+	 * Trip after "failureThreshold" failures in a row; any success resets the count.
+	 */
+	CONSECUTIVE,
+
+	/**
+	 * Trip on failure rate or slow call rate over the last "windowSize" calls.
+	 */
+	COUNT_WINDOW,
+
+	/**
+	 * Trip on failure rate or slow call rate over the last "windowSize" seconds.
+	 */
+	TIME_WINDOW
+}
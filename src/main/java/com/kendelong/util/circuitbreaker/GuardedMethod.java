@@ -0,0 +1,104 @@
+package com.kendelong.util.circuitbreaker;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * One annotated method and what protects it: its breaker (which it may share with other methods), and
+ * what to give the caller instead when the breaker won't let the call through.  The fallback method is
+ * looked up and bound to a MethodHandle once, when the method is first seen, so a missing or mismatched
+ * fallback fails then rather than during an outage.  That's at startup if the breakers are exported to JMX
+ * (see {@link CircuitBreakerAspect#getKeyedManagedResources(Class)}), and otherwise the method's first call.
+ *
+ * @author kdelong
+ */
+class GuardedMethod
+{
+	private final CircuitBreaker circuitBreaker;
+	private final MethodHandle fallback;
+	private final LastKnownGoodCache lastKnownGood;
+
+	GuardedMethod(Method method, CircuitBreakable ann, CircuitBreaker circuitBreaker)
+	{
+		this.circuitBreaker = circuitBreaker;
+		this.fallback = ann.fallback().isEmpty() ? null : bindFallback(method, ann.fallback());
+		this.lastKnownGood = ann.lastKnownGoodCacheSize() > 0 ? new LastKnownGoodCache(ann.lastKnownGoodCacheSize(), ann.lastKnownGoodTtlMs()) : null;
+	}
+
+	/**
+	 * Finds the fallback on the method's class (or a superclass) with the same parameters, and turns it into a
+	 * handle taking (target, Object[] args) and returning Object
+	 */
+	private static MethodHandle bindFallback(Method method, String name)
+	{
+		Method fallbackMethod = ReflectionUtils.findMethod(method.getDeclaringClass(), name, method.getParameterTypes());
+		if(fallbackMethod == null)
+		{
+			throw new IllegalStateException("No fallback method " + name + " with the parameters of " + method);
+		}
+		if(!ClassUtils.isAssignable(method.getReturnType(), fallbackMethod.getReturnType()))
+		{
+			throw new IllegalStateException("Fallback method " + fallbackMethod + " does not return a " + method.getReturnType().getName());
+		}
+		try
+		{
+			ReflectionUtils.makeAccessible(fallbackMethod);
+			return MethodHandles.lookup().unreflect(fallbackMethod)
+					.asSpreader(1, Object[].class, fallbackMethod.getParameterCount())
+					.asType(MethodType.methodType(Object.class, Object.class, Object[].class));
+		}
+		catch(IllegalAccessException e)
+		{
+			throw new IllegalStateException("Can't call fallback method " + fallbackMethod, e);
+		}
+	}
+
+	CircuitBreaker getCircuitBreaker()
+	{
+		return circuitBreaker;
+	}
+
+	boolean isRememberingResults()
+	{
+		return lastKnownGood != null;
+	}
+
+	void rememberResult(Object[] args, Object result)
+	{
+		lastKnownGood.put(args, result);
+	}
+
+	/**
+	 * The breaker turned the call away: serve the last known good result if there is one, then try the
+	 * fallback, and failing both pass the rejection on
+	 */
+	Object degrade(ProceedingJoinPoint pjp, CircuitBreakerException rejection) throws Throwable
+	{
+		if(lastKnownGood != null)
+		{
+			LastKnownGoodCache.Entry entry = lastKnownGood.get(pjp.getArgs());
+			if(entry != null)
+			{
+				circuitBreaker.recordLastKnownGoodResponse();
+				return entry.getValue();
+			}
+		}
+		if(fallback != null)
+		{
+			circuitBreaker.recordFallback();
+			return (Object) fallback.invokeExact(pjp.getTarget(), pjp.getArgs());
+		}
+		throw rejection;
+	}
+
+	LastKnownGoodCache getLastKnownGoodCache()
+	{
+		return lastKnownGood;
+	}
+}
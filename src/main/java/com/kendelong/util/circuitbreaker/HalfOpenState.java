@@ -1,30 +1,95 @@
 package com.kendelong.util.circuitbreaker;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 /**
- * In this state, the breaker makes an attempt at contacting the remote service. If it's
- * successful, it it resets the breaker and we go back to normal operation.  If it's 
- * unsuccessful, we go back to the Open (error) state.
+ * In this state, the breaker makes an attempt at contacting the remote service. Only
+ * "permittedCalls" trial calls are let through at a time; anybody else fails fast, so a
+ * recovering service isn't hit with the full load at once.  After "successfulCallsToClose"
+ * trials succeed, it resets the breaker and we go back to normal operation.  If any trial
+ * is unsuccessful, we go back to the Open (error) state.
+ *
+ * A new instance is created every time the breaker goes half-open, so the counts start fresh.
  *
  * @author kdelong
  */
 public class HalfOpenState implements ICircuitBreakerState
 {
+	private final AtomicInteger availablePermits = new AtomicInteger();
+	private final AtomicInteger successfulCalls = new AtomicInteger();
+	private final int successfulCallsToClose;
+
+	public HalfOpenState()
+	{
+		this(1, 1);
+	}
 
-	public void preInvoke(CircuitBreakerAspect circuitBreakerAspect) throws Throwable
+	public HalfOpenState(int permittedCalls, int successfulCallsToClose)
 	{
-		// NO OP
+		availablePermits.set(Math.max(1, permittedCalls));
+		this.successfulCallsToClose = Math.max(1, successfulCallsToClose);
 	}
 
-	public void postInvoke(CircuitBreakerAspect circuitBreakerAspect) throws Throwable
+	public ICircuitBreakerState preInvoke(CircuitBreaker circuitBreaker) throws Throwable
 	{
-		circuitBreakerAspect.reset();
+		int permits;
+		do
+		{
+			permits = availablePermits.get();
+			if(permits <= 0)
+				throw new CircuitBreakerException("Circuit Breaker is half-open and its trial calls are in use; calls are failing fast");
+		}
+		while(!availablePermits.compareAndSet(permits, permits - 1));
+		return this;
 	}
 
-	public void onError(CircuitBreakerAspect circuitBreakerAspect, Throwable e) throws Throwable
+	public void postInvoke(CircuitBreaker circuitBreaker, long elapsedNanos) throws Throwable
 	{
-		circuitBreakerAspect.tripBreaker();
+		// a slow trial means the service hasn't really recovered
+		if(circuitBreaker.isSlowCall(elapsedNanos))
+		{
+			circuitBreaker.tripBreaker(this, null);
+			return;
+		}
+		if(successfulCalls.incrementAndGet() >= successfulCallsToClose)
+		{
+			circuitBreaker.reset(this);
+		}
+		else
+		{
+			// let the next trial through
+			availablePermits.incrementAndGet();
+		}
+	}
+
+	public void onError(CircuitBreaker circuitBreaker, Throwable e) throws Throwable
+	{
+		circuitBreaker.tripBreaker(this, e);
 		throw new CircuitBreakerException(e);
 	}
 
+	@Override
+	public void onIgnoredError(CircuitBreaker circuitBreaker)
+	{
+		// the trial didn't tell us anything; let the next one through
+		availablePermits.incrementAndGet();
+	}
+
+	@Override
+	public void onFailedResult(CircuitBreaker circuitBreaker, Object result) throws Throwable
+	{
+		circuitBreaker.tripBreaker(this, null);
+	}
+
+	public int getAvailablePermits()
+	{
+		return availablePermits.get();
+	}
+
+	public int getSuccessfulCalls()
+	{
+		return successfulCalls.get();
+	}
+
 }
@@ -0,0 +1,14 @@
+package com.kendelong.util.circuitbreaker;
+
+/**
+ * Told about every change of state of the circuit breakers of a {@link CircuitBreakerAspect}.  Listeners are
+ * called on the aspect's listenerExecutor, never on the thread of the call that tripped or reset the breaker,
+ * and one at a time per breaker.  Two changes racing each other may arrive out of order; the sequence number
+ * of the event says which came first.  A slow listener only delays other listeners.
+ *
+ * @author kdelong
+ */
+public interface ICircuitBreakerListener
+{
+	public void onStateTransition(CircuitBreakerEvent event);
+}
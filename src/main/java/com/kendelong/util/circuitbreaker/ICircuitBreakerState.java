@@ -4,8 +4,27 @@ package com.kendelong.util.circuitbreaker;
 public interface ICircuitBreakerState
 {
 
-	public void preInvoke(CircuitBreakerAspect circuitBreakerAspect) throws Throwable;
-	public void postInvoke(CircuitBreakerAspect circuitBreakerAspect) throws Throwable;
-	public void onError(CircuitBreakerAspect circuitBreakerAspect, Throwable t) throws Throwable;
+	/**
+	 * Decide whether the call may go ahead.  Returns the state that admitted the call, which is the one
+	 * that must receive the postInvoke() or onError() for it; throws CircuitBreakerException to fail fast.
+	 */
+	public ICircuitBreakerState preInvoke(CircuitBreaker circuitBreaker) throws Throwable;
+	public void postInvoke(CircuitBreaker circuitBreaker, long elapsedNanos) throws Throwable;
+	public void onError(CircuitBreaker circuitBreaker, Throwable t) throws Throwable;
+
+	/**
+	 * The call threw an exception that says nothing about the remote service
+	 */
+	default void onIgnoredError(CircuitBreaker circuitBreaker)
+	{
+	}
+
+	/**
+	 * The call returned, but with a value that counts as a failure; the value still goes back to the caller
+	 */
+	default void onFailedResult(CircuitBreaker circuitBreaker, Object result) throws Throwable
+	{
+		onError(circuitBreaker, null);
+	}
 
 }
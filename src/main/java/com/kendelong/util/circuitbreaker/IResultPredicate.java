@@ -0,0 +1,13 @@
+package com.kendelong.util.circuitbreaker;
+
+/**
+ * Decides whether a value returned by a protected method is really a failure of the remote service, like
+ * a response object carrying a 503.  Name an implementation in {@link CircuitBreakable#resultPredicate()};
+ * it needs a no-arg constructor.
+ *
+ * @author kdelong
+ */
+public interface IResultPredicate
+{
+	boolean isFailure(Object result);
+}
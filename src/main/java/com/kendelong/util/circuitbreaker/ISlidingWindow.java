@@ -0,0 +1,19 @@
+package com.kendelong.util.circuitbreaker;
+
+
+/**
+ * A window over the most recent calls through a circuit breaker.  Implementations must be
+ * safe to record into from many threads at once without locking.
+ *
+ * @author kdelong
+ */
+public interface ISlidingWindow
+{
+
+	public void record(boolean failed, boolean slow);
+	public int getNumberOfCalls();
+	public int getNumberOfFailedCalls();
+	public int getNumberOfSlowCalls();
+	public void reset();
+
+}
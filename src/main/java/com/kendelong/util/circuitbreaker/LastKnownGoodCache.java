@@ -0,0 +1,160 @@
+package com.kendelong.util.circuitbreaker;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the last successful result of a method for each set of arguments, so it can be served while
+ * the breaker is open.  Entries older than the ttl are not served, and when there are more than maxSize
+ * the least recently used go first.  The arguments are the key, so they need sensible equals() and
+ * hashCode().
+ *
+ * Every successful call stores its result, so the entries are split by the hash of the key between up to
+ * 16 stripes, each a synchronized LinkedHashMap in access order with its part of maxSize.  Calls with
+ * different arguments mostly take different locks, and the least recently used entry is dropped from
+ * the stripe that is full rather than from the whole cache.  Each stripe holds at least 16 entries, so a
+ * cache of fewer than 32 is a single LRU map, and a few unlucky keys can't crowd each other out of a
+ * stripe while the rest of the cache is empty.
+ *
+ * @author kdelong
+ */
+public class LastKnownGoodCache
+{
+	private static final int MAX_STRIPES = 16;
+	private static final int MIN_STRIPE_SIZE = 16;
+
+	private final long ttlMillis;
+	private final Stripe[] stripes;
+
+	public LastKnownGoodCache(int maxSize, long ttlMillis)
+	{
+		this.ttlMillis = ttlMillis;
+		// a power of two, and no stripe smaller than MIN_STRIPE_SIZE
+		int count = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, maxSize / MIN_STRIPE_SIZE)));
+		this.stripes = new Stripe[count];
+		for(int i = 0; i < count; i++)
+		{
+			stripes[i] = new Stripe(maxSize / count + (i < maxSize % count ? 1 : 0));
+		}
+	}
+
+	public void put(Object[] args, Object result)
+	{
+		List<Object> key = key(args);
+		Entry entry = new Entry(result, getTime());
+		Stripe stripe = stripeFor(key);
+		synchronized(stripe)
+		{
+			stripe.put(key, entry);
+		}
+	}
+
+	/**
+	 * The remembered result for these arguments, or null if there is none that's young enough; use
+	 * {@link #contains(Object[])} to tell a remembered null apart
+	 */
+	public Entry get(Object[] args)
+	{
+		List<Object> key = key(args);
+		Stripe stripe = stripeFor(key);
+		synchronized(stripe)
+		{
+			Entry entry = stripe.get(key);
+			if(entry == null) return null;
+			if(getTime() - entry.time > ttlMillis)
+			{
+				stripe.remove(key);
+				return null;
+			}
+			return entry;
+		}
+	}
+
+	public boolean contains(Object[] args)
+	{
+		return get(args) != null;
+	}
+
+	public int size()
+	{
+		int size = 0;
+		for(Stripe stripe : stripes)
+		{
+			synchronized(stripe)
+			{
+				size += stripe.size();
+			}
+		}
+		return size;
+	}
+
+	public void clear()
+	{
+		for(Stripe stripe : stripes)
+		{
+			synchronized(stripe)
+			{
+				stripe.clear();
+			}
+		}
+	}
+
+	protected long getTime()
+	{
+		return System.currentTimeMillis();
+	}
+
+	private Stripe stripeFor(List<Object> key)
+	{
+		int h = key.hashCode();
+		return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+	}
+
+	private static List<Object> key(Object[] args)
+	{
+		return args == null || args.length == 0 ? List.of() : Arrays.asList(args.clone());
+	}
+
+	private static class Stripe extends LinkedHashMap<List<Object>, Entry>
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+
+		Stripe(int maxSize)
+		{
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest)
+		{
+			return size() > maxSize;
+		}
+	}
+
+	public static class Entry
+	{
+		private final Object value;
+		private final long time;
+
+		Entry(Object value, long time)
+		{
+			this.value = value;
+			this.time = time;
+		}
+
+		public Object getValue()
+		{
+			return value;
+		}
+
+		public long getTime()
+		{
+			return time;
+		}
+	}
+}
@@ -9,7 +9,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * remote service.  In this state, the breaker is tripped and we don't send any calls
  * to the remote service, thus giving it time to catch its breath and perhaps come 
  * online.  After "timeout" milliseconds, we go "half-open" and make another 
- * connection attempt.
+ * connection attempt (or a limited number of them, see {@link HalfOpenState}).
  *
  * @author kdelong
  */
@@ -24,13 +24,16 @@ public class OpenState implements ICircuitBreakerState
 		timeout.set(DEFAULT_TIMEOUT);
 	}
 	
-	public void preInvoke(CircuitBreakerAspect circuitBreakerAspect) throws Throwable
+	public ICircuitBreakerState preInvoke(CircuitBreaker circuitBreaker) throws Throwable
 	{
 		long now = System.currentTimeMillis();
 		long elapsed = now - tripTime.get();
 		if(elapsed > timeout.get())
 		{
-			circuitBreakerAspect.attemptReset();
+			// Only one of the threads racing through here gets to go half-open; they all then
+			// have to get a trial permit from whichever half-open state won
+			circuitBreaker.attemptReset(this);
+			return circuitBreaker.getState().preInvoke(circuitBreaker);
 		}
 		else
 		{
@@ -38,12 +41,12 @@ public class OpenState implements ICircuitBreakerState
 		}
 	}
 
-	public void postInvoke(CircuitBreakerAspect circuitBreakerAspect) throws Throwable
+	public void postInvoke(CircuitBreaker circuitBreaker, long elapsedNanos) throws Throwable
 	{
 		// NO OP
 	}
 
-	public void onError(CircuitBreakerAspect circuitBreakerAspect, Throwable t) throws Throwable
+	public void onError(CircuitBreaker circuitBreaker, Throwable t) throws Throwable
 	{
 		// NO OP
 	}
@@ -0,0 +1,113 @@
+package com.kendelong.util.circuitbreaker;
+
+
+/**
+ * A "closed" state that judges the remote service by the outcome of its recent calls rather
+ * than by a run of consecutive failures.  Every call is recorded in a sliding window, and once
+ * the window holds "minimumNumberOfCalls" calls the breaker trips if the percentage of failed
+ * calls reaches "failureRateThreshold" or the percentage of slow calls reaches
+ * "slowCallRateThreshold".  Successes do not wipe out the failures before them, so a service
+ * that fails 40% of the time will still trip a 30% threshold.
+ *
+ * @author kdelong
+ */
+public class SlidingWindowClosedState extends ClosedState
+{
+	private final ISlidingWindow window;
+	private final int minimumNumberOfCalls;
+	private final int failureRateThreshold;
+	private final int slowCallRateThreshold;
+
+	public SlidingWindowClosedState(ISlidingWindow window, int minimumNumberOfCalls, int failureRateThreshold,
+			int slowCallRateThreshold)
+	{
+		this.window = window;
+		this.minimumNumberOfCalls = Math.max(1, minimumNumberOfCalls);
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+	}
+
+	@Override
+	public void postInvoke(CircuitBreaker circuitBreaker, long elapsedNanos) throws Throwable
+	{
+		window.record(false, circuitBreaker.isSlowCall(elapsedNanos));
+		checkThresholds(circuitBreaker, null);
+	}
+
+	@Override
+	public void onError(CircuitBreaker circuitBreaker, Throwable t) throws Throwable
+	{
+		window.record(true, false);
+		checkThresholds(circuitBreaker, t);
+	}
+
+	private void checkThresholds(CircuitBreaker circuitBreaker, Throwable cause)
+	{
+		int calls = window.getNumberOfCalls();
+		if(calls < minimumNumberOfCalls) return;
+		if(isOverThreshold(window.getNumberOfFailedCalls(), calls, failureRateThreshold)
+				|| isOverThreshold(window.getNumberOfSlowCalls(), calls, slowCallRateThreshold))
+		{
+			circuitBreaker.tripBreaker(this, cause);
+		}
+	}
+
+	private boolean isOverThreshold(int count, int calls, int thresholdPercent)
+	{
+		return count > 0 && count * 100L >= thresholdPercent * (long) calls;
+	}
+
+	@Override
+	void resetFailureCount()
+	{
+		window.reset();
+	}
+
+	@Override
+	public int getCurrentFailureCount()
+	{
+		return window.getNumberOfFailedCalls();
+	}
+
+	public int getNumberOfBufferedCalls()
+	{
+		return window.getNumberOfCalls();
+	}
+
+	public int getNumberOfSlowCalls()
+	{
+		return window.getNumberOfSlowCalls();
+	}
+
+	public float getFailureRate()
+	{
+		return percentage(window.getNumberOfFailedCalls(), window.getNumberOfCalls());
+	}
+
+	public float getSlowCallRate()
+	{
+		return percentage(window.getNumberOfSlowCalls(), window.getNumberOfCalls());
+	}
+
+	private float percentage(int count, int calls)
+	{
+		if(calls == 0) return 0;
+		return 100.0f * count / calls;
+	}
+
+	public int getMinimumNumberOfCalls()
+	{
+		return minimumNumberOfCalls;
+	}
+
+	public int getFailureRateThreshold()
+	{
+		return failureRateThreshold;
+	}
+
+	public int getSlowCallRateThreshold()
+	{
+		return slowCallRateThreshold;
+	}
+
+}
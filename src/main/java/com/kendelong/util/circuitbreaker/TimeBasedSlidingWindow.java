@@ -0,0 +1,117 @@
+package com.kendelong.util.circuitbreaker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A ring of one-second buckets covering the last "sizeInSeconds" seconds.  A bucket that belongs
+ * to an earlier lap around the ring is replaced with a fresh one (by CAS) the first time a call
+ * lands in its slot, and is skipped when the totals are read.  No timer thread is needed.
+ *
+ * @author kdelong
+ */
+public class TimeBasedSlidingWindow implements ISlidingWindow
+{
+	private final int sizeInSeconds;
+	private final AtomicReferenceArray<Bucket> buckets;
+
+	public TimeBasedSlidingWindow(int sizeInSeconds)
+	{
+		if(sizeInSeconds < 1) throw new IllegalArgumentException("Window size must be positive, was " + sizeInSeconds);
+		this.sizeInSeconds = sizeInSeconds;
+		buckets = new AtomicReferenceArray<Bucket>(sizeInSeconds);
+	}
+
+	protected long getTime()
+	{
+		return System.currentTimeMillis();
+	}
+
+	public void record(boolean failed, boolean slow)
+	{
+		long second = getTime() / 1000;
+		Bucket bucket = getBucket(second);
+		bucket.calls.incrementAndGet();
+		if(failed) bucket.failedCalls.incrementAndGet();
+		if(slow) bucket.slowCalls.incrementAndGet();
+	}
+
+	private Bucket getBucket(long second)
+	{
+		int index = (int) (second % sizeInSeconds);
+		Bucket bucket = buckets.get(index);
+		while(bucket == null || bucket.second < second)
+		{
+			Bucket fresh = new Bucket(second);
+			if(buckets.compareAndSet(index, bucket, fresh))
+				return fresh;
+			bucket = buckets.get(index);
+		}
+		// a late thread may find a newer bucket here; counting it one second late is harmless
+		return bucket;
+	}
+
+	public int getNumberOfCalls()
+	{
+		long oldest = getOldestSecond();
+		int total = 0;
+		for(int i = 0; i < sizeInSeconds; i++)
+		{
+			Bucket bucket = buckets.get(i);
+			if(bucket != null && bucket.second >= oldest) total += bucket.calls.get();
+		}
+		return total;
+	}
+
+	public int getNumberOfFailedCalls()
+	{
+		long oldest = getOldestSecond();
+		int total = 0;
+		for(int i = 0; i < sizeInSeconds; i++)
+		{
+			Bucket bucket = buckets.get(i);
+			if(bucket != null && bucket.second >= oldest) total += bucket.failedCalls.get();
+		}
+		return total;
+	}
+
+	public int getNumberOfSlowCalls()
+	{
+		long oldest = getOldestSecond();
+		int total = 0;
+		for(int i = 0; i < sizeInSeconds; i++)
+		{
+			Bucket bucket = buckets.get(i);
+			if(bucket != null && bucket.second >= oldest) total += bucket.slowCalls.get();
+		}
+		return total;
+	}
+
+	private long getOldestSecond()
+	{
+		return getTime() / 1000 - sizeInSeconds + 1;
+	}
+
+	public void reset()
+	{
+		for(int i = 0; i < sizeInSeconds; i++)
+		{
+			buckets.set(i, null);
+		}
+	}
+
+	private static class Bucket
+	{
+		private final long second;
+		private final AtomicInteger calls = new AtomicInteger();
+		private final AtomicInteger failedCalls = new AtomicInteger();
+		private final AtomicInteger slowCalls = new AtomicInteger();
+
+		Bucket(long second)
+		{
+			this.second = second;
+		}
+	}
+
+}
@@ -0,0 +1,50 @@
+package com.kendelong.util.concurrency;
+
+/**
+ * Keeps the limit between the min and max, and serializes the updates.
+ *
+ * @author kdelong
+ */
+public abstract class AbstractLimit implements ILimitAlgorithm
+{
+	protected final int minLimit;
+	protected final int maxLimit;
+	private volatile int limit;
+
+	protected AbstractLimit(int initialLimit, int minLimit, int maxLimit)
+	{
+		if(minLimit < 1 || maxLimit < minLimit) throw new IllegalArgumentException("Need 1 <= minLimit <= maxLimit, got " + minLimit + " and " + maxLimit);
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = clamp(initialLimit);
+	}
+
+	@Override
+	public synchronized int update(long rttNanos, int inFlight, boolean dropped)
+	{
+		limit = clamp(computeLimit(limit, rttNanos, inFlight, dropped));
+		return limit;
+	}
+
+	/**
+	 * The next limit; this is called under the lock, so implementations can keep plain fields
+	 */
+	protected abstract int computeLimit(int currentLimit, long rttNanos, int inFlight, boolean dropped);
+
+	@Override
+	public int getLimit()
+	{
+		return limit;
+	}
+
+	private int clamp(int value)
+	{
+		return Math.max(minLimit, Math.min(maxLimit, value));
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + " [" + minLimit + "-" + maxLimit + "]";
+	}
+}
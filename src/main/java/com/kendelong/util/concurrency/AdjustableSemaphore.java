@@ -0,0 +1,40 @@
+package com.kendelong.util.concurrency;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * A semaphore whose total number of permits can be changed while it's in use.  Lowering it below the
+ * number handed out just means that no more are given out until enough have come back.
+ *
+ * @author kdelong
+ */
+@SuppressWarnings("serial")
+public class AdjustableSemaphore extends Semaphore
+{
+	private volatile int maxPermits;
+
+	public AdjustableSemaphore(int permits)
+	{
+		super(permits);
+		maxPermits = permits;
+	}
+
+	public AdjustableSemaphore(int permits, boolean fair)
+	{
+		super(permits, fair);
+		maxPermits = permits;
+	}
+
+	public synchronized void setMaxPermits(int newMax)
+	{
+		int delta = newMax - maxPermits;
+		if(delta > 0) release(delta);
+		else if(delta < 0) reducePermits(-delta);
+		maxPermits = newMax;
+	}
+
+	public int getMaxPermits()
+	{
+		return maxPermits;
+	}
+}
@@ -0,0 +1,26 @@
+package com.kendelong.util.concurrency;
+
+/**
+ * Additive increase, multiplicative decrease.  The limit goes up by one for each successful call made while
+ * at least half of it was in use (no point growing a limit that isn't being reached), and is cut by 10% for
+ * each failed call.
+ *
+ * @author kdelong
+ */
+public class AimdLimit extends AbstractLimit
+{
+	private static final double BACKOFF_RATIO = 0.9;
+
+	public AimdLimit(int initialLimit, int minLimit, int maxLimit)
+	{
+		super(initialLimit, minLimit, maxLimit);
+	}
+
+	@Override
+	protected int computeLimit(int currentLimit, long rttNanos, int inFlight, boolean dropped)
+	{
+		if(dropped) return (int) (currentLimit * BACKOFF_RATIO);
+		if(inFlight * 2 >= currentLimit) return currentLimit + 1;
+		return currentLimit;
+	}
+}
@@ -0,0 +1,112 @@
+package com.kendelong.util.concurrency;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs each call on a virtual thread of its own, and gives up on it after a timeout.  The caller gets a
+ * {@link BulkheadTimeoutException} and the virtual thread is interrupted, so a stuck remote call no longer
+ * holds on to the caller's thread (a Tomcat request thread, say).  Virtual threads are cheap, so there's no
+ * pool to size for each dependency; the throttle around the bulkhead still limits how many calls run at once.
+ *
+ * Thread locals (the request attributes, the logging MDC...) are not carried over to the virtual thread.
+ *
+ * @author kdelong
+ */
+public class Bulkhead
+{
+	/**
+	 * The work done on the virtual thread
+	 */
+	@FunctionalInterface
+	public interface IInvocation
+	{
+		Object proceed() throws Throwable;
+	}
+
+	private final String name;
+	private final long timeoutNanos;
+	private final ExecutorService executor;
+	private final AtomicInteger timeoutCount = new AtomicInteger();
+
+	public Bulkhead(String name, long timeoutMs)
+	{
+		this.name = name;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("bulkhead-" + name + "-", 0).factory());
+	}
+
+	public Object execute(IInvocation invocation) throws Throwable
+	{
+		Future<Object> future = executor.submit(() -> {
+			try
+			{
+				return invocation.proceed();
+			}
+			catch(Exception | Error e)
+			{
+				throw e;
+			}
+			catch(Throwable t)
+			{
+				throw new ThrowableHolder(t);
+			}
+		});
+		try
+		{
+			return future.get(timeoutNanos, TimeUnit.NANOSECONDS);
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			throw cause instanceof ThrowableHolder ? cause.getCause() : cause;
+		}
+		catch(TimeoutException e)
+		{
+			future.cancel(true);
+			timeoutCount.incrementAndGet();
+			throw new BulkheadTimeoutException("Call to " + name + " did not finish within " + getTimeoutMs() + " ms");
+		}
+		catch(InterruptedException e)
+		{
+			// nobody is waiting for the answer any more
+			future.cancel(true);
+			throw e;
+		}
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public long getTimeoutMs()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(timeoutNanos);
+	}
+
+	/**
+	 * Number of calls the caller gave up on
+	 */
+	public int getTimeoutCount()
+	{
+		return timeoutCount.get();
+	}
+
+	/**
+	 * Carries a Throwable that is neither an Exception nor an Error out of the Callable
+	 */
+	@SuppressWarnings("serial")
+	private static class ThrowableHolder extends Exception
+	{
+		ThrowableHolder(Throwable cause)
+		{
+			super(cause);
+		}
+	}
+}
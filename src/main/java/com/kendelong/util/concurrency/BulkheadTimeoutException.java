@@ -0,0 +1,31 @@
+package com.kendelong.util.concurrency;
+
+
+/**
+ * Thrown to the caller when a call running in a {@link Bulkhead} doesn't finish in time
+ *
+ * @author kdelong
+ */
+public class BulkheadTimeoutException extends RuntimeException
+{
+
+	public BulkheadTimeoutException()
+	{
+	}
+
+	public BulkheadTimeoutException(String message)
+	{
+		super(message);
+	}
+
+	public BulkheadTimeoutException(Throwable cause)
+	{
+		super(cause);
+	}
+
+	public BulkheadTimeoutException(String message, Throwable cause)
+	{
+		super(message, cause);
+	}
+
+}
@@ -0,0 +1,286 @@
+package com.kendelong.util.concurrency;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import com.kendelong.util.concurrency.PartitionedLimit.Partition;
+import com.kendelong.util.spring.MethodNames;
+
+/**
+ * The state behind one throttled method: its semaphore, the algorithm (if any) that adjusts the limit,
+ * and the counters shown in JMX.
+ *
+ * If the method may wait for a permit, the semaphore is fair so the calls get in in order of arrival, and the
+ * time spent waiting goes in a histogram.  If the limit is split between partitions of the callers, the
+ * {@link PartitionedLimit} decides who gets in, capped at the limit the semaphore carries, and the calls
+ * can't wait.
+ *
+ * @author kdelong
+ */
+public class ConcurrencyLimiter
+{
+	// weight of each call in the smoothed round trip time shown in JMX
+	private static final double RTT_SMOOTHING = 0.1;
+
+	private final String name;
+	private final String accessesKey;
+	private final String tripsKey;
+	private final LimitAlgorithm limitAlgorithm;
+	private final ILimitAlgorithm algorithm;
+	private final AdjustableSemaphore semaphore;
+	private final AtomicInteger tripCount = new AtomicInteger();
+	private volatile double smoothedRttNanos;
+
+	private final long maxWaitNanos;
+	private final int maxQueueDepth;
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final Histogram waitTimes;
+	private final PartitionedLimit partitions;
+	private final Bulkhead bulkhead;
+
+	public ConcurrencyLimiter(String name, ConcurrencyThrottle ann)
+	{
+		this.name = name;
+		// built once here so that counting calls doesn't concatenate strings on every invocation
+		String graphitePrefix = "concurrencyThrottle." + MethodNames.toMetricName(name);
+		this.accessesKey = graphitePrefix + ".accesses";
+		this.tripsKey = graphitePrefix + ".trips";
+		this.limitAlgorithm = ann.limitAlgorithm();
+		this.algorithm = limitAlgorithm.create(ann.threadLimit(), ann.minLimit(), ann.maxLimit());
+		int initialLimit = algorithm == null ? ann.threadLimit() : algorithm.getLimit();
+		if(ann.partitions().length > 0 && ann.maxWaitMs() > 0)
+			throw new IllegalArgumentException("Partitioned calls can't wait for a permit, so " + name + " can't have both partitions and maxWaitMs");
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, ann.maxWaitMs()));
+		this.maxQueueDepth = Math.max(0, ann.maxQueueDepth());
+		this.semaphore = new AdjustableSemaphore(initialLimit, maxWaitNanos > 0);
+		this.waitTimes = maxWaitNanos > 0 ? createHistogram(maxWaitNanos) : null;
+		this.bulkhead = ann.bulkheadTimeoutMs() > 0 ? new Bulkhead(name, ann.bulkheadTimeoutMs()) : null;
+		this.partitions = ann.partitions().length > 0 ? new PartitionedLimit(ann.partitions(), ann.partitionArgument(), ann.partitionAttribute()) : null;
+	}
+
+	private static Histogram createHistogram(long maxWaitNanos)
+	{
+		// waits can overshoot the timeout a little, and anything past it is clamped
+		long lowest = TimeUnit.MICROSECONDS.toNanos(1);
+		return new ConcurrentHistogram(lowest, Math.max(2 * lowest, 2 * maxWaitNanos), 2);
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	String getAccessesKey()
+	{
+		return accessesKey;
+	}
+
+	String getTripsKey()
+	{
+		return tripsKey;
+	}
+
+	public boolean isAdaptive()
+	{
+		return algorithm != null;
+	}
+
+	/**
+	 * The partition of a call with the given arguments; only for partitioned limits
+	 */
+	public Partition getPartition(Object[] args)
+	{
+		return partitions.getPartition(args);
+	}
+
+	public boolean tryAcquire(Partition partition) throws InterruptedException
+	{
+		if(partition == null) return tryAcquire();
+		if(partitions.tryAcquire(partition, getLimit())) return true;
+		tripCount.incrementAndGet();
+		return false;
+	}
+
+	public boolean tryAcquire() throws InterruptedException
+	{
+		if(maxWaitNanos == 0)
+		{
+			if(semaphore.tryAcquire()) return true;
+		}
+		// the timed form doesn't barge ahead of the calls already waiting
+		else if(semaphore.tryAcquire(0, TimeUnit.NANOSECONDS) || awaitPermit())
+		{
+			return true;
+		}
+		tripCount.incrementAndGet();
+		return false;
+	}
+
+	private boolean awaitPermit() throws InterruptedException
+	{
+		if(waiting.incrementAndGet() > maxQueueDepth)
+		{
+			waiting.decrementAndGet();
+			return false;
+		}
+		long startTime = System.nanoTime();
+		try
+		{
+			return semaphore.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+		}
+		finally
+		{
+			waiting.decrementAndGet();
+			waitTimes.recordValue(Math.min(System.nanoTime() - startTime, waitTimes.getHighestTrackableValue()));
+		}
+	}
+
+	/**
+	 * Give back the permit of a call that went through a fixed limit
+	 */
+	public void release()
+	{
+		semaphore.release();
+	}
+
+	public void release(Partition partition)
+	{
+		if(partition == null) semaphore.release();
+		else partitions.release(partition);
+	}
+
+	/**
+	 * Give back the permit of a call, and let the algorithm adjust the limit from how it went
+	 */
+	public void release(long rttNanos, int inFlight, boolean dropped)
+	{
+		release(null, rttNanos, inFlight, dropped);
+	}
+
+	public void release(Partition partition, long rttNanos, int inFlight, boolean dropped)
+	{
+		release(partition);
+		double smoothed = smoothedRttNanos;
+		smoothedRttNanos = smoothed == 0 ? rttNanos : smoothed + RTT_SMOOTHING * (rttNanos - smoothed);
+		// the same lock the algorithm updates under, so two releases can't apply their limits in the wrong order
+		synchronized(algorithm)
+		{
+			int newLimit = algorithm.update(rttNanos, inFlight, dropped);
+			if(newLimit != semaphore.getMaxPermits()) semaphore.setMaxPermits(newLimit);
+		}
+	}
+
+	/**
+	 * Whether a call that threw this was dropped by the system downstream: turned away by a limit, or timed
+	 * out.  Ordinary exceptions say nothing about load, so they don't shrink the limit.
+	 */
+	static boolean isDrop(Throwable t)
+	{
+		// a few levels of causes, for timeouts wrapped by a circuit breaker or a client library
+		for(int depth = 0; t != null && depth < 4; depth++, t = t.getCause())
+		{
+			if(t instanceof TimeoutException || t instanceof InterruptedIOException || t instanceof RejectedExecutionException
+					|| t instanceof BulkheadTimeoutException || t instanceof ConcurrencyLimitExceededException)
+				return true;
+		}
+		return false;
+	}
+
+	public int getLimit()
+	{
+		return semaphore.getMaxPermits();
+	}
+
+	/**
+	 * Number of calls in progress
+	 */
+	public int getInFlight()
+	{
+		if(partitions != null) return partitions.getInFlight();
+		return Math.max(0, semaphore.getMaxPermits() - semaphore.availablePermits());
+	}
+
+	/**
+	 * Number of calls waiting for a permit
+	 */
+	public int getQueueDepth()
+	{
+		return waiting.get();
+	}
+
+	public int getMaxQueueDepth()
+	{
+		return maxQueueDepth;
+	}
+
+	public boolean isQueueing()
+	{
+		return maxWaitNanos > 0;
+	}
+
+	public long getMaxWaitMs()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+	}
+
+	/**
+	 * Number of calls that have had to wait for a permit, whether they got one or not
+	 */
+	public long getNumberOfWaits()
+	{
+		return waitTimes == null ? 0 : waitTimes.getTotalCount();
+	}
+
+	/**
+	 * Time spent waiting at the given percentile of the calls that had to wait, in ms
+	 */
+	public double getWaitTimeAtPercentile(double percentile)
+	{
+		if(waitTimes == null || waitTimes.getTotalCount() == 0) return 0;
+		return (double) waitTimes.getValueAtPercentile(percentile) / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	public boolean isPartitioned()
+	{
+		return partitions != null;
+	}
+
+	public PartitionedLimit getPartitionedLimit()
+	{
+		return partitions;
+	}
+
+	public boolean isBulkhead()
+	{
+		return bulkhead != null;
+	}
+
+	public Bulkhead getBulkhead()
+	{
+		return bulkhead;
+	}
+
+	public int getTripCount()
+	{
+		return tripCount.get();
+	}
+
+	public LimitAlgorithm getLimitAlgorithm()
+	{
+		return limitAlgorithm;
+	}
+
+	/**
+	 * Smoothed round trip time of the calls, in ms; only measured for adaptive limits
+	 */
+	public double getRoundTripTime()
+	{
+		return smoothedRttNanos / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+}
@@ -1,19 +1,21 @@
 package com.kendelong.util.concurrency;
 
+import java.lang.reflect.Method;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.commons.lang3.StringUtils;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.core.annotation.Order;
 import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
+import com.kendelong.util.concurrency.PartitionedLimit.Partition;
 import com.kendelong.util.monitoring.graphite.GraphiteClient;
+import com.kendelong.util.spring.MethodNames;
 
 /**
  * This is an interceptor that will prevent more than a certain number of threads accessing a given resource
@@ -37,6 +39,8 @@ import com.kendelong.util.monitoring.graphite.GraphiteClient;
 	}
 	</pre>
  *
+ * Each annotated method gets its own {@link ConcurrencyLimiter}, unless methods share one through
+ * {@link ConcurrencyThrottle#name()}.  The limiters are created lazily and cached by Method.
  *
  * @author kdelong
  */
@@ -45,51 +49,111 @@ import com.kendelong.util.monitoring.graphite.GraphiteClient;
 @Order(150)
 public class ConcurrencyLimitingAspect
 {
-	private final Map<String, Integer> threadLimits  = new ConcurrentHashMap<>();  // For displays
-	private final Map<String, AtomicInteger> tripCounts  = new ConcurrentHashMap<>();
-	private final Map<String, Semaphore> semaphores = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Method, ConcurrencyLimiter> limitersByMethod = new ConcurrentHashMap<>();
 	
 	private GraphiteClient graphiteClient;
 	
 	@Around("@annotation(ann)")
 	public Object applyConcurrencyThrottle(ProceedingJoinPoint pjp, ConcurrencyThrottle ann) throws Throwable
 	{
-		final String methodName = pjp.getSignature().getName();
-		final int threadLimit = ann.threadLimit();
-		threadLimits.computeIfAbsent(methodName, k -> threadLimit);
-	    final Semaphore semaphore = semaphores.computeIfAbsent(methodName, k -> new Semaphore(threadLimit));
-		final AtomicInteger tripCount = tripCounts.computeIfAbsent(methodName, k -> new AtomicInteger());
-				
-		String key = null;
-		if(graphiteClient != null)
-		{
-			String classKey = StringUtils.substringAfterLast(pjp.getSignature().getDeclaringTypeName(), ".");
-			key = "concurrencyThrottle." + classKey + "." + methodName;
-			graphiteClient.increment(key + ".accesses");
-		}
+		final ConcurrencyLimiter limiter = getLimiter(pjp, ann);
+		if(graphiteClient != null) graphiteClient.increment(limiter.getAccessesKey());
 		
-	    if(!semaphore.tryAcquire())
+	    final Partition partition = limiter.isPartitioned() ? limiter.getPartition(pjp.getArgs()) : null;
+	    if(!limiter.tryAcquire(partition))
+	    {
+	        if(graphiteClient != null) graphiteClient.increment(limiter.getTripsKey());
+	        String waited = limiter.isQueueing() ? " after waiting up to " + limiter.getMaxWaitMs() + " ms" : "";
+	        throw new ConcurrencyLimitExceededException("This thread exceeded the thread limit of " + limiter.getLimit() + " for " + limiter.getName() + waited);
+	    }
+
+	    // in a bulkhead the permit goes back when the call really finishes, not when the caller gives up on it
+	    if(limiter.isBulkhead()) return limiter.getBulkhead().execute(() -> invoke(pjp, limiter, partition));
+	    return invoke(pjp, limiter, partition);
+	}
+
+	private Object invoke(ProceedingJoinPoint pjp, ConcurrencyLimiter limiter, Partition partition) throws Throwable
+	{
+	    if(!limiter.isAdaptive())
 	    {
-	        tripCount.incrementAndGet();
-	        if(graphiteClient != null) graphiteClient.increment(key + ".trips");
-	        throw new ConcurrencyLimitExceededException("This thread exceeded the thread limit of " + threadLimit + " for method " + methodName);
+		    try
+		    {
+		        return pjp.proceed();
+		    }
+		    finally
+		    {
+		        limiter.release(partition);
+		    }
 	    }
 
+	    int inFlight = limiter.getInFlight();
+	    long startTime = System.nanoTime();
+	    boolean dropped = false;
 	    try
 	    {
 	        return pjp.proceed();
 	    }
+	    catch(Throwable t)
+	    {
+	        dropped = ConcurrencyLimiter.isDrop(t);
+	        throw t;
+	    }
 	    finally
 	    {
-	        semaphore.release();
+	        limiter.release(partition, System.nanoTime() - startTime, inFlight, dropped);
 	    }
 	}
 	
-	@ManagedAttribute(description="The maximum number of threads allowed in the component at one time")
+	/**
+	 * The limiter of the method a call is running.  Through a JDK proxy the signature has the interface method;
+	 * the limiter is the implementation's, and is cached under both.
+	 */
+	private ConcurrencyLimiter getLimiter(ProceedingJoinPoint pjp, ConcurrencyThrottle ann)
+	{
+		Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+		ConcurrencyLimiter limiter = limitersByMethod.get(method);
+		if(limiter == null)
+		{
+			limiter = getLimiter(MethodNames.getTargetMethod(method, pjp), ann);
+			limitersByMethod.putIfAbsent(method, limiter);
+		}
+		return limiter;
+	}
+
+	/**
+	 * Find the limiter for an annotated method, creating it the first time it's asked for.  After that it's
+	 * a single lookup on the Method, so the hot path doesn't build any strings.
+	 */
+	public ConcurrencyLimiter getLimiter(Method method, ConcurrencyThrottle ann)
+	{
+		ConcurrencyLimiter limiter = limitersByMethod.get(method);
+		if(limiter == null)
+		{
+			limiter = limiters.computeIfAbsent(getLimiterName(method, ann), k -> new ConcurrencyLimiter(k, ann));
+			limitersByMethod.putIfAbsent(method, limiter);
+		}
+		return limiter;
+	}
+
+	private String getLimiterName(Method method, ConcurrencyThrottle ann)
+	{
+		if(!ann.name().isEmpty()) return ann.name();
+		return MethodNames.getName(method);
+	}
+
+	@ManagedAttribute(description="The maximum number of threads allowed in the component at one time (for adaptive limits, the current limit and round trip time)")
 	public String getThreadLimits()
 	{
 		StringBuilder sb = new StringBuilder();
-		threadLimits.forEach((k, v) -> sb.append(k).append(": ").append(v).append("\n"));
+		limiters.forEach((k, v) -> {
+			sb.append(k).append(": ").append(v.getLimit());
+			if(v.isAdaptive())
+			{
+				sb.append(" (").append(v.getLimitAlgorithm()).append(", rtt ").append(String.format("%.3f", v.getRoundTripTime())).append(" ms)");
+			}
+			sb.append("\n");
+		});
 		return sb.toString();
 	}
 
@@ -97,11 +161,7 @@ public class ConcurrencyLimitingAspect
 	public String getThreadCounts()
 	{
 	    StringBuilder sb = new StringBuilder();
-	    semaphores.forEach((k, semaphore) -> {
-	        int total = threadLimits.get(k);
-	        int inUse = total - semaphore.availablePermits();
-	        sb.append(k).append(": ").append(inUse).append(" / ").append(total).append("\n");
-	    });
+	    limiters.forEach((k, v) -> sb.append(k).append(": ").append(v.getInFlight()).append(" / ").append(v.getLimit()).append("\n"));
 	    return sb.toString();	
 	}
 	
@@ -109,9 +169,67 @@ public class ConcurrencyLimitingAspect
 	public String getTripCounts()
 	{
 		StringBuilder sb = new StringBuilder();
-		tripCounts.forEach((k, v) -> sb.append(k).append(": ").append(v.get()).append("\n"));
+		limiters.forEach((k, v) -> sb.append(k).append(": ").append(v.getTripCount()).append("\n"));
 		return sb.toString();
 	}
+
+	@ManagedAttribute(description="The number of calls waiting for a thread to leave the component, for the methods that may wait")
+	public String getQueueDepths()
+	{
+		StringBuilder sb = new StringBuilder();
+		limiters.forEach((k, v) -> {
+			if(v.isQueueing()) sb.append(k).append(": ").append(v.getQueueDepth()).append(" / ").append(v.getMaxQueueDepth()).append("\n");
+		});
+		return sb.toString();
+	}
+
+	@ManagedAttribute(description="Percentiles of the time in ms that calls waited for a thread to leave the component, for the methods that may wait")
+	public String getWaitTimes()
+	{
+		StringBuilder sb = new StringBuilder();
+		limiters.forEach((k, v) -> {
+			if(v.isQueueing())
+			{
+				sb.append(k).append(": ").append(v.getNumberOfWaits()).append(" waits")
+					.append(String.format(", p50 %.3f, p90 %.3f, p99 %.3f, max %.3f", v.getWaitTimeAtPercentile(50), v.getWaitTimeAtPercentile(90),
+							v.getWaitTimeAtPercentile(99), v.getWaitTimeAtPercentile(100)))
+					.append("\n");
+			}
+		});
+		return sb.toString();
+	}
+
+	@ManagedAttribute(description="For partitioned limits, the threads in the component and the share of the limit of each partition, and the calls it has had rejected")
+	public String getPartitions()
+	{
+		StringBuilder sb = new StringBuilder();
+		limiters.forEach((k, v) -> {
+			if(v.isPartitioned())
+			{
+				for(Partition partition : v.getPartitionedLimit().getPartitions())
+				{
+					sb.append(k).append("[").append(partition.getKey()).append("]: ").append(partition.getInFlight()).append(" / ")
+						.append(partition.getShare(v.getLimit())).append(", rejected ").append(partition.getRejected()).append("\n");
+				}
+			}
+		});
+		return sb.toString();
+	}
+
+	@ManagedAttribute(description="For bulkheads, the number of calls that did not finish in time and were abandoned")
+	public String getTimeoutCounts()
+	{
+		StringBuilder sb = new StringBuilder();
+		limiters.forEach((k, v) -> {
+			if(v.isBulkhead()) sb.append(k).append(": ").append(v.getBulkhead().getTimeoutCount()).append("\n");
+		});
+		return sb.toString();
+	}
+
+	public Map<String, ConcurrencyLimiter> getLimiters()
+	{
+		return limiters;
+	}
 	
 	public GraphiteClient getGraphiteClient()
 	{
@@ -5,9 +5,77 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Use this annotation on any method that should have a limit on the number of threads in it at once.
+ *
+ * Each annotated method has its own limit unless it shares a name with others.  By default the limit is threadLimit.  Set limitAlgorithm to let the limit adapt to how the method is
+ * doing; it starts at threadLimit and stays between minLimit and maxLimit.
+ *
+ * A call over the limit is rejected straight away unless maxWaitMs is set, in which case it queues (in
+ * order of arrival) for up to that long for a thread to leave.  At most maxQueueDepth calls queue at once;
+ * calls beyond that are rejected straight away, so a real overload still fails fast.
+ *
+ * Set partitions to split the limit between groups of callers by weight (see {@link PartitionedLimit}); the
+ * group of a call comes from partitionArgument or partitionAttribute.  Partitioned calls never wait, so
+ * partitions can't be combined with maxWaitMs.
+ *
+ * Set bulkheadTimeoutMs to run each call on a virtual thread of its own and give up on it after that long
+ * (see {@link Bulkhead}).  The limit still applies, and a call holds its place until it really finishes.
+ *
+ * @author kdelong
+ */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface ConcurrencyThrottle
 {
+	/**
+	 * Name of the throttle.  Methods on the same bean with the same name share one limit; by default
+	 * each method gets its own, named after the class and method (with the parameter types, if the
+	 * method is overloaded).
+	 */
+	String name() default "";
+
 	int threadLimit() default 20;
+
+	LimitAlgorithm limitAlgorithm() default LimitAlgorithm.FIXED;
+
+	/**
+	 * Lowest limit an adaptive algorithm will set
+	 */
+	int minLimit() default 1;
+
+	/**
+	 * Highest limit an adaptive algorithm will set
+	 */
+	int maxLimit() default 200;
+
+	/**
+	 * How long a call over the limit may wait for a thread to leave; 0 rejects it straight away
+	 */
+	long maxWaitMs() default 0;
+
+	/**
+	 * Most calls that may be waiting at once when maxWaitMs is set
+	 */
+	int maxQueueDepth() default 20;
+
+	/**
+	 * Shares of the limit as "key=weight", like {"health=10", "paying=60", "*=30"}; "*" covers the keys not listed
+	 */
+	String[] partitions() default {};
+
+	/**
+	 * Index of the argument whose value is the partition key of a call
+	 */
+	int partitionArgument() default -1;
+
+	/**
+	 * Name of the request attribute whose value is the partition key of a call, when partitionArgument isn't set
+	 */
+	String partitionAttribute() default "";
+
+	/**
+	 * If set, each call runs on a virtual thread and the caller gets a BulkheadTimeoutException after this long
+	 */
+	long bulkheadTimeoutMs() default 0;
 }
@@ -0,0 +1,43 @@
+package com.kendelong.util.concurrency;
+
+/**
+ * Compares each call's round trip time to a slow moving average of them.  When calls get slower than the
+ * average (by more than a 50% tolerance), the limit is scaled down by the ratio; when they don't, it's
+ * allowed to grow by about the square root of the limit.  The changes are smoothed so that one odd call
+ * doesn't move the limit much.
+ *
+ * @author kdelong
+ */
+public class GradientLimit extends AbstractLimit
+{
+	private static final double TOLERANCE = 1.5;
+	private static final double SMOOTHING = 0.2;
+	// weight of each sample in the long term average; roughly the last 600 calls
+	private static final double LONG_WINDOW_WEIGHT = 2.0 / 601;
+
+	private double longRttNanos;
+	private double estimatedLimit;
+
+	public GradientLimit(int initialLimit, int minLimit, int maxLimit)
+	{
+		super(initialLimit, minLimit, maxLimit);
+		estimatedLimit = getLimit();
+	}
+
+	@Override
+	protected int computeLimit(int currentLimit, long rttNanos, int inFlight, boolean dropped)
+	{
+		if(rttNanos <= 0) return currentLimit;
+		if(longRttNanos == 0) longRttNanos = rttNanos;
+		else longRttNanos += LONG_WINDOW_WEIGHT * (rttNanos - longRttNanos);
+
+		// a limit that isn't being reached tells us nothing
+		if(!dropped && inFlight * 2 < currentLimit) return currentLimit;
+
+		double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / rttNanos));
+		if(dropped) gradient = 0.5;
+		double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+		return (int) estimatedLimit;
+	}
+}
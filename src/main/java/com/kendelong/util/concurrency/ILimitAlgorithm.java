@@ -0,0 +1,22 @@
+package com.kendelong.util.concurrency;
+
+/**
+ * Works out a concurrency limit from the calls that go through it.  Implementations are called from many
+ * threads at once and must look after their own thread safety.
+ *
+ * @author kdelong
+ */
+public interface ILimitAlgorithm
+{
+	/**
+	 * Take one finished call into account.
+	 *
+	 * @param rttNanos how long the call took
+	 * @param inFlight number of calls in progress when it started (including itself)
+	 * @param dropped true if the call was turned away or timed out downstream
+	 * @return the new limit
+	 */
+	public int update(long rttNanos, int inFlight, boolean dropped);
+
+	public int getLimit();
+}
@@ -0,0 +1,46 @@
+package com.kendelong.util.concurrency;
+
+/**
+ * How a {@link ConcurrencyThrottle} sets its limit.  FIXED keeps threadLimit.  The others start at
+ * threadLimit and move it between minLimit and maxLimit based on the round trip time of each call.
+ *
+ * @author kdelong
+ */
+public enum LimitAlgorithm
+{
+	/**
+	 * The limit is threadLimit, always
+	 */
+	FIXED,
+
+	/**
+	 * Additive increase, multiplicative decrease: add one while the limit is being used and calls succeed,
+	 * cut it by 10% when a call fails
+	 */
+	AIMD,
+
+	/**
+	 * TCP Vegas: estimate the queue from how much slower calls are than the fastest one seen, and keep it small
+	 */
+	VEGAS,
+
+	/**
+	 * Scale the limit by the ratio of the long term average round trip time to the current one
+	 */
+	GRADIENT;
+
+	ILimitAlgorithm create(int initialLimit, int minLimit, int maxLimit)
+	{
+		switch(this)
+		{
+			case AIMD:
+				return new AimdLimit(initialLimit, minLimit, maxLimit);
+			case VEGAS:
+				return new VegasLimit(initialLimit, minLimit, maxLimit);
+			case GRADIENT:
+				return new GradientLimit(initialLimit, minLimit, maxLimit);
+			default:
+				return null;
+		}
+	}
+}
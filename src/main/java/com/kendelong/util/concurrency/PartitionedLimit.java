@@ -0,0 +1,173 @@
+package com.kendelong.util.concurrency;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * Splits the limit of a throttle between partitions of the callers (tenants, priorities, health checks...) by
+ * weight.  The limit is a hard cap on the total.  A partition below its share gets in as long as the total is
+ * below the limit.  A partition at or over its share can borrow the capacity the others aren't using, except
+ * that one place is kept free for each of the other partitions that is below its share.  So a partition coming
+ * back for its share gets a call in straight away, and as the borrowers finish, their places go to it rather
+ * than back to them.  The counts are atomics rather than a lock, so calls racing for the last place of a share
+ * can take a partition a little over its share; never the total over the limit, though.
+ *
+ * The partition of a call is the value of one of its arguments, or of a request attribute, looked up in the
+ * weights given as "key=weight" strings.  "*" is the weight of all keys not listed; if it isn't given they
+ * have no share at all and only get the capacity nobody else is using.
+ *
+ * @author kdelong
+ */
+public class PartitionedLimit
+{
+	public static final String OTHERS = "*";
+
+	private final Map<String, Partition> partitions = new LinkedHashMap<>();
+	private final Partition[] all;
+	private final Partition others;
+	private final int partitionArgument;
+	private final String partitionAttribute;
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	public PartitionedLimit(String[] weights, int partitionArgument, String partitionAttribute)
+	{
+		int totalWeight = 0;
+		Map<String, Integer> parsed = new LinkedHashMap<>();
+		for(String weight : weights)
+		{
+			int separator = weight.lastIndexOf('=');
+			if(separator <= 0) throw new IllegalArgumentException("Partition weights look like key=weight, not " + weight);
+			int value = Integer.parseInt(weight.substring(separator + 1).trim());
+			if(value < 0) throw new IllegalArgumentException("Partition weights can't be negative: " + weight);
+			parsed.put(weight.substring(0, separator).trim(), value);
+			totalWeight += value;
+		}
+		for(Map.Entry<String, Integer> entry : parsed.entrySet())
+		{
+			double share = totalWeight == 0 ? 0 : (double) entry.getValue() / totalWeight;
+			partitions.put(entry.getKey(), new Partition(entry.getKey(), share));
+		}
+		others = partitions.computeIfAbsent(OTHERS, k -> new Partition(k, 0));
+		all = partitions.values().toArray(new Partition[0]);
+		this.partitionArgument = partitionArgument;
+		this.partitionAttribute = partitionAttribute;
+	}
+
+	/**
+	 * The partition a call belongs to, from its arguments or the current request
+	 */
+	public Partition getPartition(Object[] args)
+	{
+		Object key = null;
+		if(partitionArgument >= 0 && partitionArgument < args.length)
+		{
+			key = args[partitionArgument];
+		}
+		else if(!partitionAttribute.isEmpty())
+		{
+			RequestAttributes request = RequestContextHolder.getRequestAttributes();
+			if(request != null) key = request.getAttribute(partitionAttribute, RequestAttributes.SCOPE_REQUEST);
+		}
+		if(key == null) return others;
+		return partitions.getOrDefault(key.toString(), others);
+	}
+
+	public boolean tryAcquire(Partition partition, int limit)
+	{
+		int cap = partition.inFlight.get() < partition.getShare(limit) ? limit : limit - countBelowShare(partition, limit);
+		int current;
+		do
+		{
+			current = inFlight.get();
+			if(current >= cap)
+			{
+				partition.rejected.incrementAndGet();
+				return false;
+			}
+		}
+		while(!inFlight.compareAndSet(current, current + 1));
+		partition.inFlight.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Number of places a borrower has to leave free: one for each other partition below its share
+	 */
+	private int countBelowShare(Partition borrower, int limit)
+	{
+		int count = 0;
+		for(Partition partition : all)
+		{
+			if(partition != borrower && partition.inFlight.get() < partition.getShare(limit)) count++;
+		}
+		return count;
+	}
+
+	public void release(Partition partition)
+	{
+		partition.inFlight.decrementAndGet();
+		inFlight.decrementAndGet();
+	}
+
+	public int getInFlight()
+	{
+		return inFlight.get();
+	}
+
+	public List<Partition> getPartitions()
+	{
+		return Collections.unmodifiableList(new ArrayList<>(partitions.values()));
+	}
+
+	public Partition getPartition(String key)
+	{
+		return partitions.get(key);
+	}
+
+	/**
+	 * One group of callers and the fraction of the limit it's guaranteed
+	 */
+	public class Partition
+	{
+		private final String key;
+		private final double share;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger rejected = new AtomicInteger();
+
+		Partition(String key, double share)
+		{
+			this.key = key;
+			this.share = share;
+		}
+
+		public String getKey()
+		{
+			return key;
+		}
+
+		/**
+		 * Number of calls this partition is guaranteed out of the given limit
+		 */
+		public int getShare(int limit)
+		{
+			return (int) Math.ceil(share * limit);
+		}
+
+		public int getInFlight()
+		{
+			return inFlight.get();
+		}
+
+		public int getRejected()
+		{
+			return rejected.get();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.kendelong.util.concurrency;
+
+/**
+ * After TCP Vegas.  The fastest call seen is taken as the no-load round trip time, and
+ * limit * (1 - noLoadRtt / rtt) as the number of calls queued up downstream.  If the queue is short the
+ * limit grows, if it is long the limit shrinks; the thresholds grow with log10 of the limit.  A failed
+ * call shrinks the limit too.
+ *
+ * @author kdelong
+ */
+public class VegasLimit extends AbstractLimit
+{
+	private long noLoadRttNanos = Long.MAX_VALUE;
+
+	public VegasLimit(int initialLimit, int minLimit, int maxLimit)
+	{
+		super(initialLimit, minLimit, maxLimit);
+	}
+
+	@Override
+	protected int computeLimit(int currentLimit, long rttNanos, int inFlight, boolean dropped)
+	{
+		if(rttNanos <= 0) return currentLimit;
+		noLoadRttNanos = Math.min(noLoadRttNanos, rttNanos);
+		int log = Math.max(1, (int) Math.log10(currentLimit));
+		if(dropped) return currentLimit - log;
+		// a limit that isn't being reached tells us nothing
+		if(inFlight * 2 < currentLimit) return currentLimit;
+
+		int queueSize = (int) Math.ceil(currentLimit * (1 - (double) noLoadRttNanos / rttNanos));
+		int alpha = 3 * log;
+		int beta = 6 * log;
+		if(queueSize <= log) return currentLimit + beta;
+		if(queueSize < alpha) return currentLimit + log;
+		if(queueSize > beta) return currentLimit - log;
+		return currentLimit;
+	}
+
+	long getNoLoadRttNanos()
+	{
+		return noLoadRttNanos;
+	}
+}
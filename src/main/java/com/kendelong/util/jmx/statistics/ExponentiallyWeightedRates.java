@@ -0,0 +1,139 @@
+package com.kendelong.util.jmx.statistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Exponentially weighted moving average rates over 1, 5 and 15 minutes, like the Unix load average.
+ * Unlike a lifetime average these follow the traffic: a spike or an outage moves the 1 minute rate
+ * within seconds, however long the application has been up.
+ *
+ * Events are counted in a LongAdder, and every 5 seconds the count is folded into the three averages.
+ * There's no timer thread; the folding is done by whichever thread marks or reads first after an
+ * interval has passed, and the intervals it missed while idle are decayed in one step.
+ *
+ * @author kdelong
+ */
+public class ExponentiallyWeightedRates
+{
+	private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+	private final LongAdder uncounted = new LongAdder();
+	private final AtomicLong lastTick;
+	private final Average oneMinute = new Average(1);
+	private final Average fiveMinute = new Average(5);
+	private final Average fifteenMinute = new Average(15);
+
+	public ExponentiallyWeightedRates()
+	{
+		lastTick = new AtomicLong(getTime());
+	}
+
+	/**
+	 * Nanoseconds, from an arbitrary origin
+	 */
+	protected long getTime()
+	{
+		return System.nanoTime();
+	}
+
+	public void mark()
+	{
+		mark(1);
+	}
+
+	public void mark(long n)
+	{
+		tickIfNecessary();
+		uncounted.add(n);
+	}
+
+	/**
+	 * Events per second, averaged over the last minute
+	 */
+	public double getOneMinuteRate()
+	{
+		tickIfNecessary();
+		return oneMinute.rate;
+	}
+
+	/**
+	 * Events per second, averaged over the last five minutes
+	 */
+	public double getFiveMinuteRate()
+	{
+		tickIfNecessary();
+		return fiveMinute.rate;
+	}
+
+	/**
+	 * Events per second, averaged over the last fifteen minutes
+	 */
+	public double getFifteenMinuteRate()
+	{
+		tickIfNecessary();
+		return fifteenMinute.rate;
+	}
+
+	public void reset()
+	{
+		uncounted.reset();
+		oneMinute.reset();
+		fiveMinute.reset();
+		fifteenMinute.reset();
+		lastTick.set(getTime());
+	}
+
+	private void tickIfNecessary()
+	{
+		long oldTick = lastTick.get();
+		long now = getTime();
+		long age = now - oldTick;
+		if(age < TICK_INTERVAL) return;
+		// only the thread that moves lastTick does the folding
+		if(!lastTick.compareAndSet(oldTick, now - age % TICK_INTERVAL)) return;
+		long ticks = age / TICK_INTERVAL;
+		double instantRate = 1.0 * uncounted.sumThenReset() / TimeUnit.NANOSECONDS.toSeconds(TICK_INTERVAL);
+		oneMinute.tick(instantRate, ticks);
+		fiveMinute.tick(instantRate, ticks);
+		fifteenMinute.tick(instantRate, ticks);
+	}
+
+	private static class Average
+	{
+		private final double alpha;
+		private volatile double rate;
+		private volatile boolean initialized;
+
+		Average(int minutes)
+		{
+			alpha = 1 - Math.exp(-TimeUnit.NANOSECONDS.toSeconds(TICK_INTERVAL) / 60.0 / minutes);
+		}
+
+		/**
+		 * Fold in one interval at instantRate, then decay for the (ticks - 1) empty ones after it
+		 */
+		void tick(double instantRate, long ticks)
+		{
+			double current;
+			if(initialized)
+			{
+				current = rate + alpha * (instantRate - rate);
+			}
+			else
+			{
+				current = instantRate;
+				initialized = true;
+			}
+			if(ticks > 1) current *= Math.pow(1 - alpha, ticks - 1);
+			rate = current;
+		}
+
+		void reset()
+		{
+			rate = 0;
+			initialized = false;
+		}
+	}
+}
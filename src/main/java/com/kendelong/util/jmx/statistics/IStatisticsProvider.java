@@ -13,4 +13,10 @@ public interface IStatisticsProvider
 	public void resetStatistics();
 	public double getAverageRequestsPerSecond();	
 	public Map<String, AtomicLong> getErrorHistogram();
+
+	// Recent rates; defaults so that existing implementations still compile
+	public default double getOneMinuteRequestsPerSecond() { return 0; }
+	public default double getFiveMinuteRequestsPerSecond() { return 0; }
+	public default double getFifteenMinuteRequestsPerSecond() { return 0; }
+	public default double getRecentRequestsPerSecond() { return 0; }
 }
@@ -0,0 +1,141 @@
+package com.kendelong.util.jmx.statistics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts (and optionally timings) over the last "sizeInSeconds" seconds, in a ring of one-second
+ * buckets.  A bucket left over from an earlier lap around the ring is replaced with a fresh one (by
+ * CAS) the first time an event lands in its slot, and is skipped when the totals are read, so no timer
+ * thread is needed.
+ *
+ * @author kdelong
+ */
+public class RollingWindow
+{
+	private final int sizeInSeconds;
+	private final AtomicReferenceArray<Bucket> buckets;
+
+	public RollingWindow(int sizeInSeconds)
+	{
+		if(sizeInSeconds < 1) throw new IllegalArgumentException("Window size must be positive, was " + sizeInSeconds);
+		this.sizeInSeconds = sizeInSeconds;
+		buckets = new AtomicReferenceArray<Bucket>(sizeInSeconds);
+	}
+
+	protected long getTime()
+	{
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Count an event that has no timing (a failure, say)
+	 */
+	public void increment()
+	{
+		getBucket(getTime() / 1000).count.increment();
+	}
+
+	/**
+	 * Count an event that took the given number of nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		Bucket bucket = getBucket(getTime() / 1000);
+		bucket.count.increment();
+		bucket.timedCount.increment();
+		bucket.totalNanos.add(nanos);
+	}
+
+	private Bucket getBucket(long second)
+	{
+		int index = (int) (second % sizeInSeconds);
+		Bucket bucket = buckets.get(index);
+		while(bucket == null || bucket.second < second)
+		{
+			Bucket fresh = new Bucket(second);
+			if(buckets.compareAndSet(index, bucket, fresh))
+				return fresh;
+			bucket = buckets.get(index);
+		}
+		// a late thread may find a newer bucket here; counting it one second late is harmless
+		return bucket;
+	}
+
+	public int getSizeInSeconds()
+	{
+		return sizeInSeconds;
+	}
+
+	/**
+	 * Number of events in the window
+	 */
+	public long getCount()
+	{
+		long oldest = getOldestSecond();
+		long total = 0;
+		for(int i = 0; i < sizeInSeconds; i++)
+		{
+			Bucket bucket = buckets.get(i);
+			if(bucket != null && bucket.second >= oldest) total += bucket.count.sum();
+		}
+		return total;
+	}
+
+	/**
+	 * Events per second over the window
+	 */
+	public double getRatePerSecond()
+	{
+		return 1.0 * getCount() / sizeInSeconds;
+	}
+
+	/**
+	 * Average of the timed events in the window, or 0 if there were none
+	 */
+	public double getAverage(TimeUnit unit)
+	{
+		long oldest = getOldestSecond();
+		long count = 0;
+		long nanos = 0;
+		for(int i = 0; i < sizeInSeconds; i++)
+		{
+			Bucket bucket = buckets.get(i);
+			if(bucket != null && bucket.second >= oldest)
+			{
+				count += bucket.timedCount.sum();
+				nanos += bucket.totalNanos.sum();
+			}
+		}
+		if(count == 0) return 0;
+		return 1.0 * nanos / count / unit.toNanos(1);
+	}
+
+	private long getOldestSecond()
+	{
+		return getTime() / 1000 - sizeInSeconds + 1;
+	}
+
+	public void reset()
+	{
+		for(int i = 0; i < sizeInSeconds; i++)
+		{
+			buckets.set(i, null);
+		}
+	}
+
+	private static class Bucket
+	{
+		private final long second;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder timedCount = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+
+		Bucket(long second)
+		{
+			this.second = second;
+		}
+	}
+
+}
@@ -39,10 +39,21 @@ public class StatisticsProvider implements IStatisticsProvider
 	private final AtomicLong errors = new AtomicLong();
 	private final AtomicReference<Date> startTime = new AtomicReference<Date>();
 	private final Map<String, AtomicLong> errorHistogram = new ConcurrentHashMap<String, AtomicLong>();
+	private final ExponentiallyWeightedRates rates = new ExponentiallyWeightedRates();
+	private final RollingWindow window;
 	
 	public StatisticsProvider()
+	{
+		this(60);
+	}
+
+	/**
+	 * @param rollingWindowSeconds length of the window behind getRecentRequestsPerSecond()
+	 */
+	public StatisticsProvider(int rollingWindowSeconds)
 	{
 		startTime.set(new Date());
+		window = new RollingWindow(rollingWindowSeconds);
 	}
 	
 	@Override
@@ -56,6 +67,30 @@ public class StatisticsProvider implements IStatisticsProvider
 		return 1000.0*getTotalNumberOfAccesses()/elapsedTime; 
 	}
 
+	@Override
+	public double getOneMinuteRequestsPerSecond()
+	{
+		return rates.getOneMinuteRate();
+	}
+
+	@Override
+	public double getFiveMinuteRequestsPerSecond()
+	{
+		return rates.getFiveMinuteRate();
+	}
+
+	@Override
+	public double getFifteenMinuteRequestsPerSecond()
+	{
+		return rates.getFifteenMinuteRate();
+	}
+
+	@Override
+	public double getRecentRequestsPerSecond()
+	{
+		return window.getRatePerSecond();
+	}
+
 	@Override
 	public long getNumberOfErrors()
 	{
@@ -94,6 +129,8 @@ public class StatisticsProvider implements IStatisticsProvider
 		errors.set(0);
 		startTime.set(new Date());
 		errorHistogram.clear();
+		rates.reset();
+		window.reset();
 	}
 
 	
@@ -102,16 +139,25 @@ public class StatisticsProvider implements IStatisticsProvider
 	public void incrementErrors()
 	{
 		errors.incrementAndGet();
+		markAccess();
 	}
 
 	public void incrementFailures()
 	{
 		failures.incrementAndGet();
+		markAccess();
 	}
 
 	public void incrementSuccess()
 	{
 		successes.incrementAndGet();
+		markAccess();
+	}
+
+	private void markAccess()
+	{
+		rates.mark();
+		window.increment();
 	}
 
 	public synchronized void logValidationFailures(BindingResult errors)
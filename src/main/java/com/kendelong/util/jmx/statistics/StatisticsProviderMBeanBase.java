@@ -17,6 +17,34 @@ public class StatisticsProviderMBeanBase implements IStatisticsProvider
 		return provider.getAverageRequestsPerSecond();
 	}
 
+	@Override
+	@ManagedAttribute(description="Requests per second, exponentially weighted over the last minute")
+	public double getOneMinuteRequestsPerSecond()
+	{
+		return provider.getOneMinuteRequestsPerSecond();
+	}
+
+	@Override
+	@ManagedAttribute(description="Requests per second, exponentially weighted over the last five minutes")
+	public double getFiveMinuteRequestsPerSecond()
+	{
+		return provider.getFiveMinuteRequestsPerSecond();
+	}
+
+	@Override
+	@ManagedAttribute(description="Requests per second, exponentially weighted over the last fifteen minutes")
+	public double getFifteenMinuteRequestsPerSecond()
+	{
+		return provider.getFifteenMinuteRequestsPerSecond();
+	}
+
+	@Override
+	@ManagedAttribute(description="Requests per second over the provider's rolling window (the last minute by default)")
+	public double getRecentRequestsPerSecond()
+	{
+		return provider.getRecentRequestsPerSecond();
+	}
+
 	@Override
 	@ManagedAttribute(description="The number of exceptions, or remote return codes indicating exceptions on the remote system")
 	public long getNumberOfErrors()
@@ -60,8 +60,8 @@ public class MbeanDataRetriever
 				def myData = [:]
 				myData['name'] = name
 				myData['oname'] = oname.toString()
-				myData['min'] = monitor.getMinimumResponseTime()
-				myData['max'] = monitor.getMaximumResponseTime()
+				myData['min'] = new BigDecimal(monitor.getMinimumResponseTime()).round(sigFigs).doubleValue()
+				myData['max'] = new BigDecimal(monitor.getMaximumResponseTime()).round(sigFigs).doubleValue()
 				myData['avg'] = new BigDecimal(monitor.getAverageResponseTime()).round(sigFigs).doubleValue()
 				myData['rpm'] = new BigDecimal(monitor.getAccessesPerMinute()).round(sigFigs).doubleValue()
 				myData['ex'] = monitor.getNumberOfExceptions()
@@ -82,7 +82,7 @@ public class MbeanDataRetriever
 			ObjectInstance objectInstance ->
 			ObjectName oname = objectInstance.objectName
 			def myData = [:]
-			myData['name'] = oname.getKeyProperty('bean')
+			myData['name'] = oname.getKeyProperty('name') ? oname.getKeyProperty('bean') + ' ' + oname.getKeyProperty('name') : oname.getKeyProperty('bean')
 			myData['oname'] = oname.toString()
 			myData['failureCount'] = mbeanServer.getAttribute(oname, 'CurrentFailureCount')
 			myData['state'] = mbeanServer.getAttribute(oname, 'CurrentState')
@@ -129,8 +129,8 @@ public class MbeanDataRetriever
 			myData['numAccesses'] = mbeanServer.getAttribute(oname, 'NumberOfAccesses')
 			myData['retriedOperations'] = mbeanServer.getAttribute(oname, 'RetriedOperations')
 			myData['failedOperations'] = mbeanServer.getAttribute(oname, 'FailedOperations')
-			def failedMethods = mbeanServer.getAttribute(oname, 'FailedMethodsData')
-			myData['failedMethods'] = failedMethods.collect { [name: it.key, failures: it.value.get()] }
+			def methodStatistics = mbeanServer.getAttribute(oname, 'MethodStatistics')
+			myData['failedMethods'] = methodStatistics.values().findAll { it.get('failures') > 0 }.collect { [name: it.get('method'), failures: it.get('failures')] }
 			return myData
 		}
 		return data
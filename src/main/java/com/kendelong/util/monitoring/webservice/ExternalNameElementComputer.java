@@ -4,11 +4,37 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
+/**
+ * Works out whether a bean's class is a web service client or endpoint.  The answer for each class is
+ * worked out once and cached in a ClassValue, since it takes annotation lookups and, for CGLIB proxies,
+ * a class name parse and a class load.
+ *
+ * @author kdelong
+ */
 public class ExternalNameElementComputer
 {
+	// ClassValue can't tell a cached null from a missing value, so "no element" is stored as this
+	private static final String NONE = "";
+
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
+	private final ClassValue<String> nameElements = new ClassValue<String>()
+	{
+		@Override
+		protected String computeValue(Class<?> clazz)
+		{
+			String nameElement = findExternalNameElement(clazz);
+			return nameElement == null ? NONE : nameElement;
+		}
+	};
+
 	public String computeExternalNameElement(Class<?> clazz)
+	{
+		String nameElement = nameElements.get(clazz);
+		return nameElement == NONE ? null : nameElement;
+	}
+
+	private String findExternalNameElement(Class<?> clazz)
 	{
 		Class<?> correctClazz = findOriginalClass(clazz);
 		String nameElement = null;
@@ -32,23 +58,29 @@ public class ExternalNameElementComputer
 		{
 			return clazz;
 		}
-		else
+		// a CGLIB proxy extends the class it proxies, so it's normally just up the hierarchy
+		for(Class<?> superclass = clazz.getSuperclass(); superclass != null; superclass = superclass.getSuperclass())
+		{
+			if(superclass.getName().equals(newClassName)) return superclass;
+		}
+		try
 		{
-			try
-			{
-				return clazz.getClassLoader().loadClass(newClassName);
-			}
-			catch(ClassNotFoundException e)
-			{
-				logger.warn("Class not found: [" + newClassName + "]");
-				return clazz;
-			}
+			return clazz.getClassLoader().loadClass(newClassName);
+		}
+		catch(ClassNotFoundException e)
+		{
+			logger.warn("Class not found: [" + newClassName + "]");
+			return clazz;
 		}
 	}
 
+	/**
+	 * Strip the CGLIB proxy suffix: $$EnhancerBySpringCGLIB$$ (Spring 5 and earlier) or $$SpringCGLIB$$ (Spring 6 and later)
+	 */
 	String cleanClassName(String cn)
 	{
 		int index = cn.indexOf("$$EnhancerBySpring");
+		if(index < 0) index = cn.indexOf("$$SpringCGLIB$$");
 		if(index < 0)
 		{
 			return cn;
@@ -0,0 +1,21 @@
+package com.kendelong.util.performance;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An AtomicLong that fills out the rest of its cache line, so that two of them (the min and max of a
+ * monitor, say) allocated next to each other don't invalidate each other's line on every write.
+ *
+ * @author kdelong
+ */
+@SuppressWarnings("serial")
+class PaddedAtomicLong extends AtomicLong
+{
+	// the fields are never read; they are there for their size
+	long p1, p2, p3, p4, p5, p6, p7;
+
+	PaddedAtomicLong(long initialValue)
+	{
+		super(initialValue);
+	}
+}
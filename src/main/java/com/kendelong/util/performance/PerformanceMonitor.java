@@ -1,27 +1,85 @@
 package com.kendelong.util.performance;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import com.kendelong.util.jmx.statistics.ExponentiallyWeightedRates;
+import com.kendelong.util.jmx.statistics.RollingWindow;
+
+/**
+ * Response time statistics for one bean or one method.  By default only the min, max, average and counts
+ * are kept.  A monitor created with a highest trackable value and a precision also records every timing
+ * in a fixed-size HdrHistogram, so it can report percentiles.  The histogram's memory depends only on the
+ * range and the precision (a few tens of KB at 2 significant digits), not on the number of timings.
+ *
+ * Timings are kept in nanoseconds.  The plain getters report milliseconds, as they always have; the ones
+ * that take a TimeUnit report in that unit.
+ *
+ * A monitor is updated by every thread that goes through its method, so the counters are LongAdders
+ * (which spread the updates over several cells under contention) and the min and max are only written
+ * when they actually change, with a CAS so that no extreme is lost.  Reads add up the cells, so the
+ * numbers can be a call or two apart from each other while calls are in flight.
+ *
+ * Besides the lifetime numbers, a monitor keeps 1/5/15 minute exponentially weighted access rates and a
+ * rolling window (60 seconds by default) of accesses and response times, which follow the current traffic.
+ *
+ * @author kdelong
+ */
 public class PerformanceMonitor
 {
-	private AtomicInteger numberOfAccesses = new AtomicInteger();
-	private AtomicInteger numberOfSuccesses = new AtomicInteger();
-	private AtomicInteger numberOfExceptions = new AtomicInteger();
-	private AtomicLong sumOfAllSuccesses = new AtomicLong();
-	private AtomicLong maximum = new AtomicLong();
-	private AtomicLong minimum = new AtomicLong(Long.MAX_VALUE);
-	private AtomicLong startTime = new AtomicLong();
+	public static final int DEFAULT_ROLLING_WINDOW_SECONDS = 60;
+
+	// accesses is successes + exceptions, so it doesn't need a counter of its own
+	private final LongAdder numberOfSuccesses = new LongAdder();
+	private final LongAdder numberOfExceptions = new LongAdder();
+	private final LongAdder sumOfAllSuccesses = new LongAdder();
+	private final AtomicLong maximum = new PaddedAtomicLong(0);
+	private final AtomicLong minimum = new PaddedAtomicLong(Long.MAX_VALUE);
+	private final AtomicLong startTime = new AtomicLong();
+	private final Histogram histogram;
+	private final ExponentiallyWeightedRates rates = new ExponentiallyWeightedRates();
+	private final RollingWindow window;
 	
 	public PerformanceMonitor()
 	{
-		long startTimeMillis = getTime();
-		startTime.set(startTimeMillis);
+		this(0, 0, DEFAULT_ROLLING_WINDOW_SECONDS);
+	}
+
+	/**
+	 * A monitor that also records percentiles.  Timings above highestTrackableMs are recorded as
+	 * highestTrackableMs; significantDigits (0-5) is the precision of the recorded values.
+	 */
+	public PerformanceMonitor(long highestTrackableMs, int significantDigits)
+	{
+		this(highestTrackableMs, significantDigits, DEFAULT_ROLLING_WINDOW_SECONDS);
+	}
+
+	/**
+	 * As above, with the given length of rolling window.  A highestTrackableMs of 0 means no percentiles.
+	 */
+	public PerformanceMonitor(long highestTrackableMs, int significantDigits, int rollingWindowSeconds)
+	{
+		startTime.set(getTime());
+		histogram = highestTrackableMs > 0 ? createHistogram(highestTrackableMs, significantDigits) : null;
+		window = new RollingWindow(rollingWindowSeconds);
 	}
 
 	protected PerformanceMonitor(long startTimeMillis)
 	{
 		startTime.set(startTimeMillis);
+		histogram = null;
+		window = new RollingWindow(DEFAULT_ROLLING_WINDOW_SECONDS);
+	}
+
+	private static Histogram createHistogram(long highestTrackableMs, int significantDigits)
+	{
+		// no auto-resize, so the footprint is fixed when the monitor is created; nothing is told apart below a microsecond
+		long lowest = TimeUnit.MICROSECONDS.toNanos(1);
+		return new ConcurrentHistogram(lowest, Math.max(2 * lowest, TimeUnit.MILLISECONDS.toNanos(highestTrackableMs)), significantDigits);
 	}
 
 	protected long getTime()
@@ -31,41 +89,120 @@ public class PerformanceMonitor
 
 	public int getNumberOfAccesses()
 	{
-		return numberOfAccesses.get();
+		return (int) (numberOfSuccesses.sum() + numberOfExceptions.sum());
 	}
 
+	/**
+	 * Record a successful call that took the given number of milliseconds
+	 */
 	public void addTiming(long val)
 	{
-		numberOfAccesses.incrementAndGet();	
-		numberOfSuccesses.incrementAndGet();
-		sumOfAllSuccesses.addAndGet(val);
-		if(val > maximum.get()) maximum.set(val);
-		if(val < minimum.get()) minimum.set(val);
+		addTimingInNanos(TimeUnit.MILLISECONDS.toNanos(val));
+	}
+
+	/**
+	 * Record a successful call that took the given number of nanoseconds (from System.nanoTime())
+	 */
+	public void addTimingInNanos(long nanos)
+	{
+		numberOfSuccesses.increment();
+		sumOfAllSuccesses.add(nanos);
+		// the plain read first keeps the common case (not a new extreme) free of writes to a shared line
+		if(nanos > maximum.get()) maximum.accumulateAndGet(nanos, Math::max);
+		if(nanos < minimum.get()) minimum.accumulateAndGet(nanos, Math::min);
+		if(histogram != null) histogram.recordValue(Math.max(0, Math.min(nanos, histogram.getHighestTrackableValue())));
+		rates.mark();
+		window.record(nanos);
+	}
+
+	private static double convert(double nanos, TimeUnit unit)
+	{
+		return nanos / unit.toNanos(1);
 	}
 
 	public void addException()
 	{
-		numberOfAccesses.incrementAndGet();
-		numberOfExceptions.incrementAndGet();
+		numberOfExceptions.increment();
+		rates.mark();
+		window.increment();
 	}
 
 	public double getAverageResponseTime()
 	{
-		int successes = numberOfSuccesses.get();
+		return getAverageResponseTime(TimeUnit.MILLISECONDS);
+	}
+
+	public double getAverageResponseTime(TimeUnit unit)
+	{
+		long successes = numberOfSuccesses.sum();
 		if(successes == 0) return 0;
-		return 1.0*sumOfAllSuccesses.get()/successes;
+		return convert(1.0*sumOfAllSuccesses.sum()/successes, unit);
 	}
 
 	public double getMaximumResponseTime()
 	{
-		return maximum.get();
+		return getMaximumResponseTime(TimeUnit.MILLISECONDS);
+	}
+
+	public double getMaximumResponseTime(TimeUnit unit)
+	{
+		return convert(maximum.get(), unit);
 	}
 
 	public double getMinimumResponseTime()
+	{
+		return getMinimumResponseTime(TimeUnit.MILLISECONDS);
+	}
+
+	public double getMinimumResponseTime(TimeUnit unit)
 	{
 		long time = minimum.get();
 		if(time == Long.MAX_VALUE) time = 0;
-		return time;
+		return convert(time, unit);
+	}
+	
+	public boolean isRecordingPercentiles()
+	{
+		return histogram != null;
+	}
+
+	/**
+	 * The response time in ms at the given percentile (0-100), or 0 if this monitor does not record percentiles
+	 */
+	public double getResponseTimeAtPercentile(double percentile)
+	{
+		return getResponseTimeAtPercentile(percentile, TimeUnit.MILLISECONDS);
+	}
+
+	public double getResponseTimeAtPercentile(double percentile, TimeUnit unit)
+	{
+		if(histogram == null || histogram.getTotalCount() == 0) return 0;
+		return convert(histogram.getValueAtPercentile(percentile), unit);
+	}
+
+	public double getMedianResponseTime()
+	{
+		return getResponseTimeAtPercentile(50);
+	}
+
+	public double get90thPercentileResponseTime()
+	{
+		return getResponseTimeAtPercentile(90);
+	}
+
+	public double get99thPercentileResponseTime()
+	{
+		return getResponseTimeAtPercentile(99);
+	}
+
+	public double get999thPercentileResponseTime()
+	{
+		return getResponseTimeAtPercentile(99.9);
+	}
+
+	long getHistogramFootprintInBytes()
+	{
+		return histogram == null ? 0 : histogram.getEstimatedFootprintInBytes();
 	}
 	
 	public double getAccessesPerSecond()
@@ -76,6 +213,50 @@ public class PerformanceMonitor
 		return 1000.0*getNumberOfAccesses()/delta;
 	}
 	
+	/**
+	 * Accesses per second, exponentially weighted over the last minute
+	 */
+	public double getOneMinuteRate()
+	{
+		return rates.getOneMinuteRate();
+	}
+
+	public double getFiveMinuteRate()
+	{
+		return rates.getFiveMinuteRate();
+	}
+
+	public double getFifteenMinuteRate()
+	{
+		return rates.getFifteenMinuteRate();
+	}
+
+	/**
+	 * Accesses per second over the rolling window
+	 */
+	public double getRecentAccessesPerSecond()
+	{
+		return window.getRatePerSecond();
+	}
+
+	/**
+	 * Average response time in ms of the successful calls in the rolling window
+	 */
+	public double getRecentAverageResponseTime()
+	{
+		return getRecentAverageResponseTime(TimeUnit.MILLISECONDS);
+	}
+
+	public double getRecentAverageResponseTime(TimeUnit unit)
+	{
+		return window.getAverage(unit);
+	}
+
+	public int getRollingWindowSeconds()
+	{
+		return window.getSizeInSeconds();
+	}
+	
 	public double getAccessesPerMinute()
 	{
 		return getAccessesPerSecond()*60.0;
@@ -88,11 +269,16 @@ public class PerformanceMonitor
 	
 	public int getNumberOfExceptions()
 	{
-		return numberOfExceptions.get();
+		return (int) numberOfExceptions.sum();
 	}
 	
 	public int getCumulativeTime()
 	{
-		return (int) (getAverageResponseTime()*getNumberOfAccesses());
+		return (int) getCumulativeTime(TimeUnit.MILLISECONDS);
+	}
+
+	public long getCumulativeTime(TimeUnit unit)
+	{
+		return (long) (getAverageResponseTime(unit)*getNumberOfAccesses());
 	}
 }
@@ -1,12 +1,16 @@
 package com.kendelong.util.performance;
 
+import java.lang.reflect.Method;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang3.StringUtils;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.annotation.Order;
@@ -61,12 +65,20 @@ public class PerformanceMonitoringAspect
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
 	private final Map<String, PerformanceMonitor> monitors = new ConcurrentHashMap<>();
+	// everything about a method that doesn't change from call to call, worked out on its first call
+	private final ConcurrentMap<Method, MonitoredMethod> monitoredMethods = new ConcurrentHashMap<>();
 	
 	private final ExternalNameElementComputer nameElementComputer = new ExternalNameElementComputer();
 	
 	private GraphiteClient graphiteClient;
 	
 	private Boolean sendControllerMethodDataToGraphite = false;
+
+	private volatile boolean recordPercentiles = false;
+	private volatile int percentilePrecision = 2;
+	private volatile long highestTrackableResponseTime = 3_600_000;
+	private volatile TimeUnit reportingTimeUnit = TimeUnit.MILLISECONDS;
+	private volatile int rollingWindowSeconds = PerformanceMonitor.DEFAULT_ROLLING_WINDOW_SECONDS;
 	
 	@Around("bean(*Controller)")
 	public Object monitorControllers(ProceedingJoinPoint pjp) throws Throwable
@@ -83,73 +95,81 @@ public class PerformanceMonitoringAspect
 	//@Around("bean(*Controller) or @within(com.kendelong.util.performance.MonitorPerformance)")
 	public Object monitorInvocation(ProceedingJoinPoint pjp, boolean includeMethods) throws Throwable
 	{
-		String classKey = StringUtils.substringAfterLast(pjp.getSignature().getDeclaringTypeName(), ".");
-		String methodName = pjp.getSignature().getName();
-		String methodKey = classKey + "." + methodName;
-		PerformanceMonitor classMonitor = getMonitor(classKey);
-		PerformanceMonitor methodMonitor = getMonitor(methodKey);
+		MonitoredMethod monitored = getMonitoredMethod(pjp);
 		Object value;
-		long startTime = System.currentTimeMillis();
-		String graphitePrefix = null;
+		// nanoTime is monotonic, and fine grained enough for the sub-millisecond calls
+		long startTime = System.nanoTime();
 		try
 		{
 			if(graphiteClient != null)
 			{
-				String nameElement = nameElementComputer.computeExternalNameElement(pjp.getTarget().getClass());
-				graphitePrefix = "performance.";
-				if(nameElement != null) graphitePrefix = "webservice." + nameElement + ".";
-				graphiteClient.increment(graphitePrefix + classKey + ".accesses"); 
-				if(includeMethods) graphiteClient.increment(graphitePrefix + methodKey + ".accesses"); 
+				graphiteClient.increment(monitored.classAccessesKey); 
+				if(includeMethods) graphiteClient.increment(monitored.methodAccessesKey); 
 			}
 
 			value = pjp.proceed();
 			
-			long stopTime = System.currentTimeMillis();
-			long duration = stopTime - startTime;
-			classMonitor.addTiming(duration);
-			methodMonitor.addTiming(duration);
+			long durationNanos = System.nanoTime() - startTime;
+			monitored.classMonitor.addTimingInNanos(durationNanos);
+			monitored.methodMonitor.addTimingInNanos(durationNanos);
+			TimeUnit unit = reportingTimeUnit;
+			long duration = unit.convert(durationNanos, TimeUnit.NANOSECONDS);
 			if(logger.isTraceEnabled())
 			{
-				logger.trace("Performance monitor [" + methodKey + "] finished in [" + duration + "] ms");
+				logger.trace("Performance monitor [" + monitored.methodKey + "] finished in [" + duration + "] " + unit.name().toLowerCase());
 			}
 			if(graphiteClient != null)
 			{
-				graphiteClient.time(graphitePrefix + classKey, duration);
-				if(includeMethods) graphiteClient.time(graphitePrefix + methodKey, duration);
+				graphiteClient.time(monitored.classTimerKey, duration);
+				if(includeMethods) graphiteClient.time(monitored.methodTimerKey, duration);
 			}
 			
 			return value;
 		}
 		catch(Throwable t)
 		{
-			classMonitor.addException();
-			methodMonitor.addException();
+			monitored.classMonitor.addException();
+			monitored.methodMonitor.addException();
 			if(graphiteClient != null)
 			{
-				graphiteClient.increment(graphitePrefix + classKey + ".error");
-				if(includeMethods) graphiteClient.increment(graphitePrefix + methodKey + ".error");
+				graphiteClient.increment(monitored.classErrorKey);
+				if(includeMethods) graphiteClient.increment(monitored.methodErrorKey);
 			}			
 			throw t;
 		}
 	}
 
-	private PerformanceMonitor getMonitor(String key)
+	private MonitoredMethod getMonitoredMethod(ProceedingJoinPoint pjp)
 	{
-		PerformanceMonitor monitor = null;
-		monitor = monitors.get(key);
-		if(monitor == null)
+		Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+		MonitoredMethod monitored = monitoredMethods.get(method);
+		if(monitored == null)
 		{
-			monitor = new PerformanceMonitor();
-			monitors.put(key, monitor);
+			monitored = monitoredMethods.computeIfAbsent(method, m -> createMonitoredMethod(pjp));
 		}
-		return monitor;
+		return monitored;
+	}
+
+	private MonitoredMethod createMonitoredMethod(ProceedingJoinPoint pjp)
+	{
+		String classKey = StringUtils.substringAfterLast(pjp.getSignature().getDeclaringTypeName(), ".");
+		String methodKey = classKey + "." + pjp.getSignature().getName();
+		// worked out from the first target seen; beans sharing an inherited method share its monitors anyway
+		String nameElement = nameElementComputer.computeExternalNameElement(pjp.getTarget().getClass());
+		String graphitePrefix = nameElement == null ? "performance." : "webservice." + nameElement + ".";
+		return new MonitoredMethod(getMonitor(classKey), getMonitor(methodKey), methodKey, graphitePrefix + classKey, graphitePrefix + methodKey);
+	}
+
+	private PerformanceMonitor getMonitor(String key)
+	{
+		return monitors.computeIfAbsent(key, k -> new PerformanceMonitor(recordPercentiles ? highestTrackableResponseTime : 0, percentilePrecision, rollingWindowSeconds));
 	}
 	
 	@ManagedAttribute(description="Show performance report")
 	public String getPerformanceReport()
 	{
 		ReportFormatter formatter = new ReportFormatter();
-		return formatter.formatReport(monitors);
+		return formatter.formatReport(monitors, reportingTimeUnit);
 	}
 	
 	@ManagedAttribute(description="Get map of monitor objects")
@@ -171,6 +191,7 @@ public class PerformanceMonitoringAspect
 	@ManagedOperation(description="Reset all monitors")
 	public void resetAllMonitors()
 	{
+		monitoredMethods.clear();
 		monitors.clear();
 	}
 
@@ -185,4 +206,90 @@ public class PerformanceMonitoringAspect
 		this.sendControllerMethodDataToGraphite = sendControllerMethodDataToGraphite;
 	}
 
+	@ManagedAttribute(description="Whether new monitors record response time percentiles (reset the monitors to apply a change)")
+	public boolean isRecordPercentiles()
+	{
+		return recordPercentiles;
+	}
+
+	@ManagedAttribute()
+	public void setRecordPercentiles(boolean recordPercentiles)
+	{
+		this.recordPercentiles = recordPercentiles;
+	}
+
+	@ManagedAttribute(description="Number of significant digits kept in the percentile histograms (0-5)")
+	public int getPercentilePrecision()
+	{
+		return percentilePrecision;
+	}
+
+	@ManagedAttribute()
+	public void setPercentilePrecision(int percentilePrecision)
+	{
+		this.percentilePrecision = percentilePrecision;
+	}
+
+	@ManagedAttribute(description="Largest response time the percentile histograms can tell apart; longer calls are recorded as this")
+	public long getHighestTrackableResponseTime()
+	{
+		return highestTrackableResponseTime;
+	}
+
+	@ManagedAttribute()
+	public void setHighestTrackableResponseTime(long highestTrackableResponseTime)
+	{
+		this.highestTrackableResponseTime = highestTrackableResponseTime;
+	}
+
+	@ManagedAttribute(description="Unit of the times in the performance report and the Graphite timers (e.g. MILLISECONDS, MICROSECONDS)")
+	public String getReportingTimeUnit()
+	{
+		return reportingTimeUnit.name();
+	}
+
+	@ManagedAttribute()
+	public void setReportingTimeUnit(String reportingTimeUnit)
+	{
+		this.reportingTimeUnit = TimeUnit.valueOf(reportingTimeUnit.trim().toUpperCase());
+	}
+
+	@ManagedAttribute(description="Length in seconds of the monitors' rolling window of recent accesses (reset the monitors to apply a change)")
+	public int getRollingWindowSeconds()
+	{
+		return rollingWindowSeconds;
+	}
+
+	@ManagedAttribute()
+	public void setRollingWindowSeconds(int rollingWindowSeconds)
+	{
+		this.rollingWindowSeconds = rollingWindowSeconds;
+	}
+
+	private static class MonitoredMethod
+	{
+		private final PerformanceMonitor classMonitor;
+		private final PerformanceMonitor methodMonitor;
+		private final String methodKey;
+		private final String classAccessesKey;
+		private final String methodAccessesKey;
+		private final String classTimerKey;
+		private final String methodTimerKey;
+		private final String classErrorKey;
+		private final String methodErrorKey;
+
+		MonitoredMethod(PerformanceMonitor classMonitor, PerformanceMonitor methodMonitor, String methodKey, String classGraphiteKey, String methodGraphiteKey)
+		{
+			this.classMonitor = classMonitor;
+			this.methodMonitor = methodMonitor;
+			this.methodKey = methodKey;
+			this.classAccessesKey = classGraphiteKey + ".accesses";
+			this.methodAccessesKey = methodGraphiteKey + ".accesses";
+			this.classTimerKey = classGraphiteKey;
+			this.methodTimerKey = methodGraphiteKey;
+			this.classErrorKey = classGraphiteKey + ".error";
+			this.methodErrorKey = methodGraphiteKey + ".error";
+		}
+	}
+
 }
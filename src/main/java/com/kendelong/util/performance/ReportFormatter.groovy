@@ -1,17 +1,21 @@
 package com.kendelong.util.performance
 
+import java.util.concurrent.TimeUnit
+
 import groovy.xml.MarkupBuilder;
 
 class ReportFormatter
 {
-	String formatReport(Map<String, PerformanceMonitor> monitors)
+	String formatReport(Map<String, PerformanceMonitor> monitors, TimeUnit unit = TimeUnit.MILLISECONDS)
 	{
 		Map<String, Map<String, PerformanceMonitor>> mapped = monitors.groupBy { it.key.contains('.') ? 'method' : 'bean' }
 		def methodByService = mapped.method?.groupBy { it.key.split(/\./)[0] }
 		if(!methodByService) return '<div>No Data</div>'
+		boolean percentiles = monitors.values().any { it.recordingPercentiles }
 		StringWriter writer = new StringWriter()
 		MarkupBuilder html = new MarkupBuilder(writer)
 		html.div {
+			p("Times are in ${unit.name().toLowerCase()}")
 			h2('Service Level Monitors')
 			table(border: 2, 'class':'tablesorter') {
 				thead {
@@ -21,9 +25,20 @@ class ReportFormatter
 						th('Maximum')
 						th('Average')
 						th('Requests/min')
+						th('Req/s (1 min)')
+						th('Req/s (5 min)')
+						th('Req/s (15 min)')
+						th('Recent Average')
 						th('Exceptions')
 						th('Number of Accesses')
 						th('Cumulative Time')
+						if(percentiles)
+						{
+							th('p50')
+							th('p90')
+							th('p99')
+							th('p99.9')
+						}
 					}
 				}
 				tbody {
@@ -31,13 +46,18 @@ class ReportFormatter
 						key, value ->
 						tr {
 							td(key)
-							td(value.minimumResponseTime)
-							td(value.maximumResponseTime)
-							td(value.averageResponseTime)
+							td(value.getMinimumResponseTime(unit))
+							td(value.getMaximumResponseTime(unit))
+							td(value.getAverageResponseTime(unit))
 							td(value.accessesPerMinute)
+							td(value.oneMinuteRate)
+							td(value.fiveMinuteRate)
+							td(value.fifteenMinuteRate)
+							td(value.getRecentAverageResponseTime(unit))
 							td(value.numberOfExceptions)
 							td(value.numberOfAccesses)
-							td(value.cumulativeTime)
+							td(value.getCumulativeTime(unit))
+							if(percentiles) percentileCells(delegate, value, unit)
 						}
 					}
 				}
@@ -54,9 +74,20 @@ class ReportFormatter
 							th('Maximum')
 							th('Average')
 							th('Requests/min')
+							th('Req/s (1 min)')
+							th('Req/s (5 min)')
+							th('Req/s (15 min)')
+							th('Recent Average')
 							th('Exceptions')
 							th('Number of Accesses')
 							th('Cumulative Time')
+							if(percentiles)
+							{
+								th('p50')
+								th('p90')
+								th('p99')
+								th('p99.9')
+							}
 						}
 					}
 					tbody {
@@ -64,13 +95,18 @@ class ReportFormatter
 							key, value ->
 							tr {
 								td(key)
-								td(value.minimumResponseTime)
-								td(value.maximumResponseTime)
-								td(value.averageResponseTime)
+								td(value.getMinimumResponseTime(unit))
+								td(value.getMaximumResponseTime(unit))
+								td(value.getAverageResponseTime(unit))
 								td(value.accessesPerMinute)
+								td(value.oneMinuteRate)
+								td(value.fiveMinuteRate)
+								td(value.fifteenMinuteRate)
+								td(value.getRecentAverageResponseTime(unit))
 								td(value.numberOfExceptions)
 								td(value.numberOfAccesses)
-								td(value.cumulativeTime)
+								td(value.getCumulativeTime(unit))
+								if(percentiles) percentileCells(delegate, value, unit)
 							}
 						}
 					}
@@ -80,6 +116,14 @@ class ReportFormatter
 		return writer.toString() + '\n' + getSortingCode()
 	}
 	
+	private void percentileCells(def html, PerformanceMonitor monitor, TimeUnit unit)
+	{
+		html.td(monitor.getResponseTimeAtPercentile(50, unit))
+		html.td(monitor.getResponseTimeAtPercentile(90, unit))
+		html.td(monitor.getResponseTimeAtPercentile(99, unit))
+		html.td(monitor.getResponseTimeAtPercentile(99.9, unit))
+	}
+	
 	static void main(def args)
 	{
 		def n = ['entryService', 'scaleService', 'entryService.foo', 'entryService.bar', 'scaleService.foo', 'scaleService.bar' ]
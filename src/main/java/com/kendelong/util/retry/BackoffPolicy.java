@@ -0,0 +1,78 @@
+package com.kendelong.util.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How long the {@link RetryInterceptor} waits before each retry.  All the delays are capped at maxDelayMs.
+ * The jittered ones spread out the retries of callers that failed at the same moment, so they don't all
+ * come back at once and recreate the contention that made them fail.
+ *
+ * See "Exponential Backoff And Jitter" on the AWS Architecture Blog.
+ *
+ * @author kdelong
+ */
+public enum BackoffPolicy
+{
+	/**
+	 * base * attempt: 100, 200, 300... ms
+	 */
+	LINEAR
+	{
+		@Override
+		long computeDelay(int attempt, long baseDelayMs, long maxDelayMs, long previousDelayMs)
+		{
+			return baseDelayMs * attempt;
+		}
+	},
+	/**
+	 * base * 2^(attempt-1): 100, 200, 400... ms
+	 */
+	EXPONENTIAL
+	{
+		@Override
+		long computeDelay(int attempt, long baseDelayMs, long maxDelayMs, long previousDelayMs)
+		{
+			return exponential(attempt, baseDelayMs);
+		}
+	},
+	/**
+	 * A random delay between 0 and the exponential one.  The cap is applied before the draw, so once the
+	 * exponential is past it the delays are still spread evenly up to the cap instead of piling up on it.
+	 */
+	FULL_JITTER
+	{
+		@Override
+		long computeDelay(int attempt, long baseDelayMs, long maxDelayMs, long previousDelayMs)
+		{
+			return ThreadLocalRandom.current().nextLong(Math.min(maxDelayMs, exponential(attempt, baseDelayMs)) + 1);
+		}
+	},
+	/**
+	 * A random delay between the base and three times the previous delay, or the cap if that's lower
+	 */
+	DECORRELATED_JITTER
+	{
+		@Override
+		long computeDelay(int attempt, long baseDelayMs, long maxDelayMs, long previousDelayMs)
+		{
+			long upper = Math.min(maxDelayMs, Math.max(baseDelayMs, previousDelayMs) * 3);
+			return ThreadLocalRandom.current().nextLong(baseDelayMs, Math.max(baseDelayMs, upper) + 1);
+		}
+	};
+
+	/**
+	 * The delay before the given retry (the first retry is attempt 1)
+	 */
+	public long getDelay(int attempt, long baseDelayMs, long maxDelayMs, long previousDelayMs)
+	{
+		return Math.max(0, Math.min(maxDelayMs, computeDelay(attempt, Math.max(0, baseDelayMs), Math.max(0, maxDelayMs), previousDelayMs)));
+	}
+
+	abstract long computeDelay(int attempt, long baseDelayMs, long maxDelayMs, long previousDelayMs);
+
+	private static long exponential(int attempt, long baseDelayMs)
+	{
+		// past 2^30 the cap has long since taken over
+		return baseDelayMs << Math.min(30, Math.max(0, attempt - 1));
+	}
+}
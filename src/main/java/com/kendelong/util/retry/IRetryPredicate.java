@@ -0,0 +1,12 @@
+package com.kendelong.util.retry;
+
+/**
+ * Decides whether a failure is worth retrying when its class alone doesn't say, e.g. by looking at the
+ * SQL state or the HTTP status in the exception.  Configure these as beans on the {@link RetryInterceptor}.
+ *
+ * @author kdelong
+ */
+public interface IRetryPredicate
+{
+	boolean isRetryable(Throwable t);
+}
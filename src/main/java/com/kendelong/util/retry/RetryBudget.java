@@ -0,0 +1,64 @@
+package com.kendelong.util.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that keeps retries to a percentage of the calls.  Each call puts percent/100 of a token in
+ * the bucket and each retry takes a whole one out; when the bucket is empty, failures are not retried.  The
+ * bucket holds at most maxTokens, which is also what it starts with, so a quiet service can still retry a
+ * short burst of failures.  Under a broad outage the bucket empties and the retries stop multiplying the load
+ * on whatever is down.
+ *
+ * @author kdelong
+ */
+public class RetryBudget
+{
+	// tokens are kept in thousandths so the deposits can be fractional and the updates lock-free
+	private static final long SCALE = 1000;
+
+	private final long depositPerCall;
+	private final long capacity;
+	private final AtomicLong balance;
+
+	public RetryBudget(int percent, int maxTokens)
+	{
+		this.depositPerCall = percent * SCALE / 100;
+		this.capacity = maxTokens * SCALE;
+		this.balance = new AtomicLong(capacity);
+	}
+
+	public void recordCall()
+	{
+		// a full bucket is the common case; skip the write
+		if(balance.get() >= capacity) return;
+		balance.accumulateAndGet(depositPerCall, (current, deposit) -> Math.min(capacity, current + deposit));
+	}
+
+	/**
+	 * Take a token for a retry, if there is one
+	 */
+	public boolean tryRetry()
+	{
+		long current;
+		do
+		{
+			current = balance.get();
+			if(current < SCALE) return false;
+		}
+		while(!balance.compareAndSet(current, current - SCALE));
+		return true;
+	}
+
+	/**
+	 * Number of retries the budget allows right now
+	 */
+	public int getAvailableRetries()
+	{
+		return (int) (balance.get() / SCALE);
+	}
+
+	public int getPercent()
+	{
+		return (int) (depositPerCall * 100 / SCALE);
+	}
+}
@@ -0,0 +1,74 @@
+package com.kendelong.util.retry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which failures the {@link RetryInterceptor} retries.  An exception is retried if it is an instance
+ * of one of the retryable classes (subclasses count), or, when causes are inspected, if anything in its
+ * cause chain is.  Failing that, the predicates get a say.
+ *
+ * The class check is worked out once per exception class and memoized in a ClassValue, so a hot failure
+ * path only does a lookup per exception in the chain, not a walk of the class hierarchy.  The classifier is
+ * immutable; build a new one when the configuration changes.
+ *
+ * @author kdelong
+ */
+public class RetryClassifier
+{
+	// deep enough for any sane wrapping, and a guard against cycles in the cause chain
+	private static final int MAX_CAUSE_DEPTH = 16;
+
+	private final List<Class<? extends Throwable>> retryableClasses;
+	private final List<IRetryPredicate> predicates;
+	private final boolean inspectCauses;
+
+	private final ClassValue<Boolean> retryableByClass = new ClassValue<Boolean>()
+	{
+		@Override
+		protected Boolean computeValue(Class<?> type)
+		{
+			for(Class<? extends Throwable> retryable : retryableClasses)
+			{
+				if(retryable.isAssignableFrom(type)) return Boolean.TRUE;
+			}
+			return Boolean.FALSE;
+		}
+	};
+
+	public RetryClassifier(List<? extends Class<? extends Throwable>> retryableClasses, List<IRetryPredicate> predicates, boolean inspectCauses)
+	{
+		this.retryableClasses = new ArrayList<>(retryableClasses);
+		this.predicates = new ArrayList<>(predicates);
+		this.inspectCauses = inspectCauses;
+	}
+
+	public boolean isRetryable(Throwable t)
+	{
+		if(isRetryableClass(t)) return true;
+		for(IRetryPredicate predicate : predicates)
+		{
+			if(predicate.isRetryable(t)) return true;
+		}
+		return false;
+	}
+
+	private boolean isRetryableClass(Throwable t)
+	{
+		Throwable current = t;
+		for(int depth = 0; current != null && depth < MAX_CAUSE_DEPTH; depth++)
+		{
+			if(retryableByClass.get(current.getClass())) return true;
+			if(!inspectCauses) return false;
+			Throwable cause = current.getCause();
+			if(cause == current) return false;
+			current = cause;
+		}
+		return false;
+	}
+
+	public boolean isInspectCauses()
+	{
+		return inspectCauses;
+	}
+}
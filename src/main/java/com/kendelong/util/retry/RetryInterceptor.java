@@ -1,15 +1,27 @@
 package com.kendelong.util.retry;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.lang3.StringUtils;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.annotation.Order;
@@ -17,6 +29,7 @@ import org.springframework.jmx.export.annotation.ManagedAttribute;
 import org.springframework.jmx.export.annotation.ManagedResource;
 
 import com.kendelong.util.monitoring.graphite.GraphiteClient;
+import com.kendelong.util.spring.MethodNames;
 
 /**
  * Make sure the "order" property on this is lower than the transaction interceptor's order.
@@ -25,6 +38,15 @@ import com.kendelong.util.monitoring.graphite.GraphiteClient;
  * 
  * See Spring 3.0 reference PDF, end of section 7.2
  * 
+ * A method that returns a CompletionStage (or CompletableFuture) is retried asynchronously: instead of
+ * sleeping on the caller's thread, the retries are scheduled on the asyncRetryExecutor when the stage fails,
+ * and the caller gets back a CompletableFuture of the final outcome.
+ * 
+ * An exception is retried if it is an instance of one of the exceptionClassesToRetry (or a subclass), or
+ * if one of its causes is, or if one of the retryPredicates says so.  See {@link RetryClassifier}.  The
+ * decisions are memoized, so change the classes with the setter rather than editing the list after the
+ * first call.
+ * 
  * Configuration is like
  * <pre>
  * ${@code
@@ -56,17 +78,27 @@ import com.kendelong.util.monitoring.graphite.GraphiteClient;
 @Order(100)
 public class RetryInterceptor
 {
-	// These are really read-only for JMX
-	private final AtomicInteger maxRetries = new AtomicInteger(2);
-	private final AtomicInteger retryBaseDelayInMs = new AtomicInteger(100);
-
 	private List<Class<? extends Exception>> exceptionClassesToRetry = new ArrayList<Class<? extends Exception>>();
+	private List<IRetryPredicate> retryPredicates = new ArrayList<IRetryPredicate>();
+	private boolean inspectCauses = true;
+	// built from the three above on first use
+	private volatile RetryClassifier classifier;
 	
 	// Instrumentation
 	private final AtomicInteger accesses = new AtomicInteger();
 	private final AtomicInteger retriedOperations = new AtomicInteger();
 	private final AtomicInteger failedOperations = new AtomicInteger();
-	private final Map<String, AtomicInteger> failedMethods = new ConcurrentHashMap<String, AtomicInteger>(); 
+	private final ConcurrentMap<String, RetryStatistics> statistics = new ConcurrentHashMap<String, RetryStatistics>();
+	private final ConcurrentMap<Method, RetryStatistics> statisticsByMethod = new ConcurrentHashMap<>();
+	private final AtomicInteger retriesDeniedByBudget = new AtomicInteger();
+
+	private volatile int retryBudgetPercent = 0;
+	private volatile int retryBudgetMaxTokens = 10;
+	private volatile RetryBudget retryBudget;
+
+	// shared by all the interceptors; a virtual thread per attempt, so a slow attempt doesn't hold up the others
+	private static final Executor VIRTUAL_THREADS = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("retry-", 0).factory());
+	private Executor asyncRetryExecutor = VIRTUAL_THREADS;
 	
 	private final Logger logger = LoggerFactory.getLogger(this.getClass());
 	
@@ -76,44 +108,55 @@ public class RetryInterceptor
 	@Around("@annotation(ann)")
 	public Object doConcurrentOperation(ProceedingJoinPoint pjp, RetryableOperation ann) throws Throwable
 	{
-		// Set these for JMX reads
-		retryBaseDelayInMs.set(ann.msToFirstRetry());
-		maxRetries.set(ann.maxRetries());
+		RetryStatistics stats = getStatistics(pjp, ann);
+		if(graphiteClient != null) graphiteClient.increment(stats.getAccessesKey());
 		
-		String key = null;
-		if(graphiteClient != null)
+		accesses.incrementAndGet();
+		stats.recordAccess();
+		RetryBudget budget = retryBudget;
+		if(budget != null) budget.recordCall();
+		if(returnsCompletionStage(pjp))
 		{
-			String classKey = StringUtils.substringAfterLast(pjp.getSignature().getDeclaringTypeName(), ".");
-			String methodName = pjp.getSignature().getName();
-			key = "retryInterceptor." + classKey + "." + methodName;
-			graphiteClient.increment(key + ".accesses");
+			AsyncRetry retry = new AsyncRetry(pjp, ann, stats, budget);
+			retry.attempt();
+			return retry.promise;
 		}
-		
-		accesses.incrementAndGet();
+
 		int numAttempts = 0;
-		Exception concurrencyFailureException;
+		long sleepDelay = 0;
+		Exception concurrencyFailureException = null;
 		do
 		{
 			if(numAttempts > 0)
 			{
+				if(budget != null && !budget.tryRetry())
+				{
+					logger.warn("Retry budget exhausted; rethrowing exception to client without retrying [{}]", stats.getMethod());
+					retriesDeniedByBudget.incrementAndGet();
+					stats.recordDeniedByBudget();
+					throw concurrencyFailureException;
+				}
 				// It's a retry; log it
-				int sleepDelay = ann.msToFirstRetry()*numAttempts;
-				logger.info("Sleeping [{}] ms before retrying invocation [{}]; attempt [{}]", sleepDelay, key, numAttempts);
+				sleepDelay = ann.backoff().getDelay(numAttempts, ann.msToFirstRetry(), ann.maxDelayMs(), sleepDelay);
+				logger.info("Sleeping [{}] ms before retrying invocation [{}]; attempt [{}]", sleepDelay, stats.getMethod(), numAttempts);
 				Thread.sleep(sleepDelay);
 				retriedOperations.incrementAndGet();
-				if(graphiteClient != null) graphiteClient.increment(key + ".retries");
+				stats.recordRetry(sleepDelay);
+				if(graphiteClient != null) graphiteClient.increment(stats.getRetriesKey());
 			}
 			
 			numAttempts++;
 			try
 			{
-				return pjp.proceed();
+				Object result = pjp.proceed();
+				stats.recordSuccess(numAttempts);
+				return result;
 			}
 			catch(Exception e)
 			{
-				// if it's not in the list of exceptions to catch and retry, then keep going
+				// if it's not one of the exceptions to catch and retry, then keep going
 				// throw the exceptions to the client and stop counting
-				if(!exceptionClassesToRetry.contains(e.getClass()))
+				if(!isRetryable(e))
 				{
 					if(logger.isDebugEnabled())
 					{
@@ -125,37 +168,178 @@ public class RetryInterceptor
 				// Otherwise, count it as a concurrency failure.
 				concurrencyFailureException = e;				
 				logger.warn("Exception [" + e.getMessage() + "] caught, attempt number [" + numAttempts + "]");
-				logConcurrencyFailure(pjp);
+				stats.recordFailure();
 			}
 		} while(numAttempts <= ann.maxRetries());
 		
 		logger.warn("Max retries reached; rethrowing exception to client");
 		failedOperations.incrementAndGet();
+		stats.recordExhausted();
 		throw concurrencyFailureException;
 	}
 
-	private void logConcurrencyFailure(ProceedingJoinPoint pjp)
+	private boolean isRetryable(Throwable t)
 	{
-		String key = pjp.getSignature().toShortString();
-		AtomicInteger counter = failedMethods.get(key);
-		if(counter == null)
+		RetryClassifier current = classifier;
+		if(current == null)
 		{
-			// yeah, this block is not threadsafe, so what
-			counter = new AtomicInteger();
-			failedMethods.put(key, counter);
+			current = new RetryClassifier(exceptionClassesToRetry, retryPredicates, inspectCauses);
+			classifier = current;
 		}
-		counter.incrementAndGet();
+		return current.isRetryable(t);
+	}
+
+	/**
+	 * Only methods declared to return a CompletionStage or CompletableFuture are retried asynchronously, since
+	 * those are the ones the CompletableFuture handed back can stand in for
+	 */
+	private boolean returnsCompletionStage(ProceedingJoinPoint pjp)
+	{
+		if(!(pjp.getSignature() instanceof MethodSignature)) return false;
+		Class<?> returnType = ((MethodSignature) pjp.getSignature()).getReturnType();
+		return CompletionStage.class.isAssignableFrom(returnType) && returnType.isAssignableFrom(CompletableFuture.class);
+	}
+
+	/**
+	 * Retries a method that returns a CompletionStage without blocking anybody.  Each attempt's stage is
+	 * watched, and when it fails with a retryable exception the next attempt is scheduled on the
+	 * asyncRetryExecutor after the backoff delay.  The caller gets a CompletableFuture that completes with
+	 * the outcome of the last attempt.  Cancelling it stops the retries.
+	 */
+	private class AsyncRetry
+	{
+		private final ProceedingJoinPoint pjp;
+		private final RetryableOperation ann;
+		private final RetryStatistics stats;
+		private final RetryBudget budget;
+		private final CompletableFuture<Object> promise = new CompletableFuture<>();
+		private int numAttempts;
+		private long delay;
+
+		AsyncRetry(ProceedingJoinPoint pjp, RetryableOperation ann, RetryStatistics stats, RetryBudget budget)
+		{
+			this.pjp = pjp;
+			this.ann = ann;
+			this.stats = stats;
+			this.budget = budget;
+		}
+
+		void attempt()
+		{
+			if(promise.isDone()) return;
+			numAttempts++;
+			CompletionStage<?> stage;
+			try
+			{
+				stage = (CompletionStage<?>) pjp.proceed();
+			}
+			catch(Throwable t)
+			{
+				onFailure(t);
+				return;
+			}
+			if(stage == null)
+			{
+				promise.complete(null);
+				return;
+			}
+			stage.whenComplete((value, error) -> {
+				if(error == null)
+				{
+					stats.recordSuccess(numAttempts);
+					promise.complete(value);
+				}
+				else onFailure(error);
+			});
+		}
+
+		private void onFailure(Throwable t)
+		{
+			Throwable cause = (t instanceof CompletionException || t instanceof ExecutionException) && t.getCause() != null ? t.getCause() : t;
+			if(!isRetryable(cause))
+			{
+				logger.debug("Exception [{}] is not in the whitelist", cause.getClass());
+				promise.completeExceptionally(cause);
+				return;
+			}
+			logger.warn("Exception [" + cause.getMessage() + "] caught, attempt number [" + numAttempts + "]");
+			stats.recordFailure();
+			if(numAttempts > ann.maxRetries())
+			{
+				logger.warn("Max retries reached; failing the future");
+				failedOperations.incrementAndGet();
+				stats.recordExhausted();
+				promise.completeExceptionally(cause);
+				return;
+			}
+			if(budget != null && !budget.tryRetry())
+			{
+				logger.warn("Retry budget exhausted; failing the future without retrying [{}]", stats.getMethod());
+				retriesDeniedByBudget.incrementAndGet();
+				stats.recordDeniedByBudget();
+				promise.completeExceptionally(cause);
+				return;
+			}
+			delay = ann.backoff().getDelay(numAttempts, ann.msToFirstRetry(), ann.maxDelayMs(), delay);
+			logger.info("Scheduling retry of invocation [{}] in [{}] ms; attempt [{}]", stats.getMethod(), delay, numAttempts);
+			retriedOperations.incrementAndGet();
+			stats.recordRetry(delay);
+			if(graphiteClient != null) graphiteClient.increment(stats.getRetriesKey());
+			CompletableFuture.runAsync(this::attempt, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, asyncRetryExecutor));
+		}
+	}
+
+	/**
+	 * The statistics of a method, created with the settings of its annotation the first time it's called.  After
+	 * that it's a single lookup on the Method, so the hot path doesn't build any strings.
+	 */
+	private RetryStatistics getStatistics(ProceedingJoinPoint pjp, RetryableOperation ann)
+	{
+		Method method = ((MethodSignature) pjp.getSignature()).getMethod();
+		RetryStatistics stats = statisticsByMethod.get(method);
+		if(stats != null) return stats;
+		return statisticsByMethod.computeIfAbsent(method, m -> statistics.computeIfAbsent(MethodNames.getName(m),
+				k -> new RetryStatistics(k, "retryInterceptor." + MethodNames.toMetricName(k), ann)));
 	}
 
 	public void setExceptionClassesToRetry(List<Class<? extends Exception>> exceptionClasses)
 	{
 		this.exceptionClassesToRetry = exceptionClasses;
+		classifier = null;
 	}
 
 	public List<Class<? extends Exception>> getExceptionClassesToRetry()
 	{
 		return exceptionClassesToRetry;
 	}
+
+	/**
+	 * Extra tests for failures whose class isn't in exceptionClassesToRetry
+	 */
+	public void setRetryPredicates(List<IRetryPredicate> retryPredicates)
+	{
+		this.retryPredicates = retryPredicates;
+		classifier = null;
+	}
+
+	public List<IRetryPredicate> getRetryPredicates()
+	{
+		return retryPredicates;
+	}
+
+	/**
+	 * Whether an exception is retried when something in its cause chain is retryable (the default)
+	 */
+	public void setInspectCauses(boolean inspectCauses)
+	{
+		this.inspectCauses = inspectCauses;
+		classifier = null;
+	}
+
+	public boolean isInspectCauses()
+	{
+		return inspectCauses;
+	}
 	
 	@ManagedAttribute(description="Times this interceptor was accessed")
 	public int getNumberOfAccesses()
@@ -175,36 +359,71 @@ public class RetryInterceptor
 		return failedOperations.get();
 	}
 	
-	@ManagedAttribute(description="Number of times the interceptor will retry a failed operation")
+	@ManagedAttribute(description="Largest number of times the interceptor will retry a failed operation, over all its methods")
 	public int getMaxRetries()
 	{
-		return maxRetries.get();
+		return statistics.values().stream().mapToInt(RetryStatistics::getMaxRetries).max().orElse(0);
 	}
 	
-	@ManagedAttribute(description="The names of the methods that failed with concurrent exceptions")
-	public String getFailedMethods()
-	{
-		StringBuilder builder = new StringBuilder();
-		builder.append("<script src=\"/js/sorttable.js\"></script>");
-		builder.append("<script src=\"/webassets/js/sorttable.js\"></script>");
-		builder.append("<table border=\"2\" class=\"sortable\"><tbody><tr><th>Method Name</th><th>Failures</th></tr>");
-		for(String methodName : failedMethods.keySet())
-		{
-			int val = failedMethods.get(methodName).get();
+	@ManagedAttribute(description="Percentage of calls that may be retried, over time; 0 means no budget")
+	public int getRetryBudgetPercent()
+	{
+		return retryBudgetPercent;
+	}
 
-			builder.append("<tr>");
-			builder.append("<td style=\"text-align: left;\">").append(methodName).append("</td>");
-			builder.append("<td style=\"text-align: right;\">").append(val).append("</td>");
-			builder.append("</tr>");
-		}
-		builder.append("</tbody></table>");
-		return builder.toString();
+	/**
+	 * Keep the retries to this percentage of the calls (10 means one retry per ten calls), so that a broad
+	 * outage isn't made worse by retries; 0 turns the budget off
+	 */
+	@ManagedAttribute()
+	public void setRetryBudgetPercent(int percent)
+	{
+		retryBudgetPercent = percent;
+		createRetryBudget();
 	}
-	
-	@ManagedAttribute(description="Get failed methods raw data")
-	public Map<String, AtomicInteger> getFailedMethodsData()
+
+	@ManagedAttribute(description="Most retries the budget saves up for a burst of failures")
+	public int getRetryBudgetMaxTokens()
+	{
+		return retryBudgetMaxTokens;
+	}
+
+	@ManagedAttribute()
+	public void setRetryBudgetMaxTokens(int maxTokens)
+	{
+		retryBudgetMaxTokens = maxTokens;
+		createRetryBudget();
+	}
+
+	private void createRetryBudget()
+	{
+		retryBudget = retryBudgetPercent > 0 ? new RetryBudget(retryBudgetPercent, retryBudgetMaxTokens) : null;
+	}
+
+	@ManagedAttribute(description="Number of retries the budget allows right now (-1 if there is no budget)")
+	public int getAvailableRetries()
+	{
+		RetryBudget budget = retryBudget;
+		return budget == null ? -1 : budget.getAvailableRetries();
+	}
+
+	@ManagedAttribute(description="Failures that were not retried because the retry budget was used up")
+	public int getRetriesDeniedByBudget()
+	{
+		return retriesDeniedByBudget.get();
+	}
+
+	@ManagedAttribute(description="Retry statistics of each method: calls, retries, failures, exhausted retries, time spent waiting, attempts needed to succeed")
+	public TabularData getMethodStatistics()
+	{
+		TabularDataSupport table = new TabularDataSupport(RetryStatistics.TABULAR_TYPE);
+		for(RetryStatistics stats : statistics.values()) table.put(stats.toCompositeData());
+		return table;
+	}
+
+	public Map<String, RetryStatistics> getStatistics()
 	{
-		return failedMethods;
+		return statistics;
 	}
 
 	public GraphiteClient getGraphiteClient()
@@ -217,10 +436,10 @@ public class RetryInterceptor
 		this.graphiteClient = graphiteClient;
 	}
 
-	@ManagedAttribute(description="The base delay in ms used in retries")
+	@ManagedAttribute(description="Largest base delay in ms used in retries, over all the methods")
 	public int getRetryBaseDelayInMs()
 	{
-		return retryBaseDelayInMs.get();
+		return statistics.values().stream().mapToInt(RetryStatistics::getRetryBaseDelayInMs).max().orElse(0);
 	}
 
 }
@@ -0,0 +1,191 @@
+package com.kendelong.util.retry;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularType;
+
+/**
+ * What the {@link RetryInterceptor} has done for one method: how often it was called, how many attempts the
+ * successful calls needed, how often the retries ran out, and how long the calls spent waiting between
+ * attempts.  The settings are the ones from the method's own annotation.
+ *
+ * The statistics are exported to JMX as open data (see {@link #toCompositeData()}), so they can be read
+ * without knowing about this class.
+ *
+ * @author kdelong
+ */
+public class RetryStatistics
+{
+	private static final String[] ITEM_NAMES = { "method", "maxRetries", "retryBaseDelayInMs", "accesses", "retries", "failures",
+			"exhausted", "deniedByBudget", "sleepTimeMs", "attemptsToSucceed" };
+	private static final String[] ITEM_DESCRIPTIONS = { "The method", "Retries allowed by the annotation", "Base delay in ms from the annotation",
+			"Calls", "Retries made", "Attempts that failed with a retryable exception", "Calls that failed after using up their retries",
+			"Calls that failed because the retry budget was used up", "Total time in ms spent waiting between attempts",
+			"Number of successful calls that needed 1, 2, 3... attempts" };
+
+	public static final CompositeType COMPOSITE_TYPE;
+	public static final TabularType TABULAR_TYPE;
+	static
+	{
+		try
+		{
+			OpenType<?>[] itemTypes = { SimpleType.STRING, SimpleType.INTEGER, SimpleType.INTEGER, SimpleType.LONG, SimpleType.LONG,
+					SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, ArrayType.getPrimitiveArrayType(long[].class) };
+			COMPOSITE_TYPE = new CompositeType("RetryStatistics", "Retries of one method", ITEM_NAMES, ITEM_DESCRIPTIONS, itemTypes);
+			TABULAR_TYPE = new TabularType("RetryMethodStatistics", "Retries of each method", COMPOSITE_TYPE, new String[] { "method" });
+		}
+		catch(OpenDataException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private final String method;
+	private final int maxRetries;
+	private final int retryBaseDelayInMs;
+	private final String accessesKey;
+	private final String retriesKey;
+
+	private final LongAdder accesses = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder exhausted = new LongAdder();
+	private final LongAdder deniedByBudget = new LongAdder();
+	private final LongAdder sleepTimeMs = new LongAdder();
+	private final AtomicLongArray attemptsToSucceed;
+
+	public RetryStatistics(String method, String graphitePrefix, RetryableOperation ann)
+	{
+		this.method = method;
+		this.maxRetries = ann.maxRetries();
+		this.retryBaseDelayInMs = ann.msToFirstRetry();
+		// built once here so that counting calls doesn't concatenate strings on every invocation
+		this.accessesKey = graphitePrefix + ".accesses";
+		this.retriesKey = graphitePrefix + ".retries";
+		this.attemptsToSucceed = new AtomicLongArray(Math.max(0, maxRetries) + 1);
+	}
+
+	void recordAccess()
+	{
+		accesses.increment();
+	}
+
+	void recordFailure()
+	{
+		failures.increment();
+	}
+
+	void recordRetry(long delayMs)
+	{
+		retries.increment();
+		sleepTimeMs.add(delayMs);
+	}
+
+	void recordSuccess(int attempts)
+	{
+		attemptsToSucceed.incrementAndGet(Math.max(0, Math.min(attempts, attemptsToSucceed.length()) - 1));
+	}
+
+	void recordExhausted()
+	{
+		exhausted.increment();
+	}
+
+	void recordDeniedByBudget()
+	{
+		deniedByBudget.increment();
+	}
+
+	String getAccessesKey()
+	{
+		return accessesKey;
+	}
+
+	String getRetriesKey()
+	{
+		return retriesKey;
+	}
+
+	public String getMethod()
+	{
+		return method;
+	}
+
+	public int getMaxRetries()
+	{
+		return maxRetries;
+	}
+
+	public int getRetryBaseDelayInMs()
+	{
+		return retryBaseDelayInMs;
+	}
+
+	public long getAccesses()
+	{
+		return accesses.sum();
+	}
+
+	public long getRetries()
+	{
+		return retries.sum();
+	}
+
+	/**
+	 * Number of attempts that failed with a retryable exception
+	 */
+	public long getFailures()
+	{
+		return failures.sum();
+	}
+
+	public long getExhausted()
+	{
+		return exhausted.sum();
+	}
+
+	public long getDeniedByBudget()
+	{
+		return deniedByBudget.sum();
+	}
+
+	/**
+	 * Time spent waiting between attempts; asleep for synchronous methods, scheduled for asynchronous ones
+	 */
+	public long getSleepTimeMs()
+	{
+		return sleepTimeMs.sum();
+	}
+
+	/**
+	 * Element i is the number of successful calls that needed i+1 attempts
+	 */
+	public long[] getAttemptsToSucceed()
+	{
+		long[] counts = new long[attemptsToSucceed.length()];
+		for(int i = 0; i < counts.length; i++) counts[i] = attemptsToSucceed.get(i);
+		return counts;
+	}
+
+	public CompositeData toCompositeData()
+	{
+		Object[] values = { method, maxRetries, retryBaseDelayInMs, getAccesses(), getRetries(), getFailures(), getExhausted(),
+				getDeniedByBudget(), getSleepTimeMs(), getAttemptsToSucceed() };
+		try
+		{
+			return new CompositeDataSupport(COMPOSITE_TYPE, ITEM_NAMES, values);
+		}
+		catch(OpenDataException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+}
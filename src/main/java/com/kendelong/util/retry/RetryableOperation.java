@@ -5,6 +5,13 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Use this annotation on any method that should be retried when it throws one of the RetryInterceptor's
+ * exceptions.  The delay before each retry comes from the backoff policy, starting from msToFirstRetry
+ * and never more than maxDelayMs.
+ *
+ * @author kdelong
+ */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface RetryableOperation
@@ -13,4 +20,11 @@ public @interface RetryableOperation
 	
 	int maxRetries() default 2;
 
+	BackoffPolicy backoff() default BackoffPolicy.LINEAR;
+
+	/**
+	 * Longest delay before any one retry
+	 */
+	long maxDelayMs() default 10000;
+
 }
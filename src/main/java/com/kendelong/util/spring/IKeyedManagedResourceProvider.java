@@ -0,0 +1,19 @@
+package com.kendelong.util.spring;
+
+import java.util.Map;
+
+/**
+ * An aspect that keeps separate state for each key (method, name, etc.) can implement this to have
+ * {@link JmxExportingAspectPostProcessor} export one MBean per key alongside the aspect itself.
+ *
+ * @author Ken DeLong
+ *
+ */
+public interface IKeyedManagedResourceProvider
+{
+	/**
+	 * Called once for each advised bean.  Implementations should create (or look up) the state for
+	 * every key the advised class will use, and return it keyed by the name to put in the OName.
+	 */
+	public Map<String, Object> getKeyedManagedResources(Class<?> advisedClass);
+}
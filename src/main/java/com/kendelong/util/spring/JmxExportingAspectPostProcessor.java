@@ -9,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.aop.Advisor;
 import org.springframework.aop.aspectj.AbstractAspectJAdvice;
+import org.springframework.aop.support.AopUtils;
 import org.springframework.aop.framework.Advised;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.config.BeanPostProcessor;
@@ -40,6 +41,9 @@ import com.kendelong.util.monitoring.webservice.ExternalNameElementComputer;
  * and the value of the map which will be also used for the OName.  OName structure is 
  *      jmxDomain:service=[map value],bean=[original advised bean name]
  * 
+ * Aspects that implement {@link IKeyedManagedResourceProvider} also get one MBean per key, at
+ *      jmxDomain:service=[map value],bean=[original advised bean name],name=[key]
+ * 
  * @author Ken DeLong
  *
  */
@@ -84,6 +88,10 @@ public class JmxExportingAspectPostProcessor implements BeanPostProcessor
 							Object target = aaja.getAspectInstanceFactory().getAspectInstance();
 							oname = new ObjectName(onameString);
 							registerMBean(oname, target, beanName);
+							if(target instanceof IKeyedManagedResourceProvider)
+							{
+								registerKeyedMBeans((IKeyedManagedResourceProvider) target, onameString, bean, beanName);
+							}
 						}
 						catch(Exception e)
 						{
@@ -96,6 +104,29 @@ public class JmxExportingAspectPostProcessor implements BeanPostProcessor
 		return bean;
 	}
 	
+	private void registerKeyedMBeans(IKeyedManagedResourceProvider provider, String onameString, Object bean, String beanName)
+	{
+		Map<String, Object> resources = provider.getKeyedManagedResources(AopUtils.getTargetClass(bean));
+		for(Map.Entry<String, Object> entry : resources.entrySet())
+		{
+			String keyedOnameString = onameString + ",name=" + cleanKey(entry.getKey());
+			try
+			{
+				registerMBean(new ObjectName(keyedOnameString), entry.getValue(), beanName);
+			}
+			catch(Exception e)
+			{
+				logger.error("Cannot register mbean with oname [" + keyedOnameString +"]", e);
+			}
+		}
+	}
+
+	private String cleanKey(String key)
+	{
+		// these characters are not allowed in an unquoted ObjectName value
+		return key.replaceAll("[,=:*?\"\\\\\\n]", "_");
+	}
+
 	private String getDomain(Object bean)
 	{
 		String webserviceNameElement = nameElementComputer.computeExternalNameElement(bean.getClass());
@@ -0,0 +1,71 @@
+package com.kendelong.util.spring;
+
+import java.lang.reflect.Method;
+import java.util.StringJoiner;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.aop.support.AopUtils;
+
+/**
+ * Names for the per-method state kept by the aspects, so that the state created up front for JMX by
+ * {@link IKeyedManagedResourceProvider#getKeyedManagedResources(Class)} is the same state the calls use.
+ *
+ * @author kdelong
+ */
+public final class MethodNames
+{
+	private MethodNames()
+	{
+	}
+
+	/**
+	 * SimpleClassName.method, with the parameter types if the method is overloaded, like
+	 * Service.lookup(String,int)
+	 */
+	public static String getName(Method method)
+	{
+		String name = method.getDeclaringClass().getSimpleName() + "." + method.getName();
+		if(!isOverloaded(method)) return name;
+		StringJoiner parameters = new StringJoiner(",", "(", ")");
+		for(Class<?> type : method.getParameterTypes()) parameters.add(type.getSimpleName());
+		return name + parameters;
+	}
+
+	/**
+	 * The name as a Graphite/statsd key: Service.lookup(String,int) becomes Service.lookup_String_int,
+	 * and a name without parameters is left alone
+	 */
+	public static String toMetricName(String name)
+	{
+		return name.replaceAll("[)\\[\\]]", "").replaceAll("[(,:|@#\\s]", "_");
+	}
+
+	private static boolean isOverloaded(Method method)
+	{
+		for(Method other : method.getDeclaringClass().getDeclaredMethods())
+		{
+			if(other.getName().equals(method.getName()) && !other.equals(method) && !other.isBridge()) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The method on the target class that a call is running.  Through a JDK proxy the signature has the
+	 * interface method, while the annotation and the state exported to JMX belong to the implementation's.
+	 * Only looks at the target when it has to, as it's meant to be called once per method and cached.
+	 */
+	public static Method getTargetMethod(ProceedingJoinPoint pjp)
+	{
+		return getTargetMethod(((MethodSignature) pjp.getSignature()).getMethod(), pjp);
+	}
+
+	/**
+	 * Same, for a caller that already has the signature's method
+	 */
+	public static Method getTargetMethod(Method method, ProceedingJoinPoint pjp)
+	{
+		if(!method.getDeclaringClass().isInterface()) return method;
+		return AopUtils.getMostSpecificMethod(method, AopUtils.getTargetClass(pjp.getTarget()));
+	}
+}
@@ -5,11 +5,25 @@ import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.openmbean.TabularData;
+
 import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.junit.Before;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
 import org.junit.Test;
 
 
@@ -18,13 +32,28 @@ public class CircuitBreakerAspectTest
 	private CircuitBreakerAspect aspect;
 	private ProceedingJoinPoint mockPjp;
 	private Object returnValue;
+	private CircuitBreakable ann;
 
 	@Before
-	public void setUp()
+	public void setUp() throws Exception
 	{
+		Method serviceMethod = MyService.class.getMethod("serviceMethod");
+		ann = serviceMethod.getAnnotation(CircuitBreakable.class);
 		aspect = new CircuitBreakerAspect();
-		mockPjp = createMock(ProceedingJoinPoint.class);
+		mockPjp = createJoinPoint(serviceMethod);
 		returnValue = new Object();
+		// create the breaker now, so the aspect-level operations have something to act on
+		aspect.getCircuitBreaker(serviceMethod, ann);
+	}
+
+	private ProceedingJoinPoint createJoinPoint(Method method)
+	{
+		MethodSignature signature = createMock(MethodSignature.class);
+		expect(signature.getMethod()).andReturn(method).anyTimes();
+		replay(signature);
+		ProceedingJoinPoint pjp = createMock(ProceedingJoinPoint.class);
+		expect(pjp.getSignature()).andReturn(signature).anyTimes();
+		return pjp;
 	}
 
 	@Test
@@ -33,7 +62,7 @@ public class CircuitBreakerAspectTest
 		expect(mockPjp.proceed()).andReturn(returnValue);
 		replay(mockPjp);
 		
-		Object result = aspect.applyCircuitBreaker(mockPjp);
+		Object result = aspect.applyCircuitBreaker(mockPjp, ann);
 		assertSame(returnValue, result);
 		verify(mockPjp);		
 	}
@@ -50,7 +79,7 @@ public class CircuitBreakerAspectTest
 		{
 			try
 			{
-				aspect.applyCircuitBreaker(mockPjp);
+				aspect.applyCircuitBreaker(mockPjp, ann);
 			}
 			catch(Throwable e)	// NOPMD
 			{
@@ -61,7 +90,7 @@ public class CircuitBreakerAspectTest
 		// Now, after "threshold" number of calls, the circuit breaker should open, and throw a CBException
 		try
 		{
-			aspect.applyCircuitBreaker(mockPjp);
+			aspect.applyCircuitBreaker(mockPjp, ann);
 		}
 		catch(CircuitBreakerException cbe) // NOPMD
 		{
@@ -88,14 +117,14 @@ public class CircuitBreakerAspectTest
 		
 		try
 		{
-			aspect.applyCircuitBreaker(mockPjp);
+			aspect.applyCircuitBreaker(mockPjp, ann);
 		}
 		catch(CircuitBreakerException e) // NOPMD
 		{
 			// this is expected; circuit is still open
 		}
 		Thread.sleep((long) (timeout*1.2));
-		Object value = aspect.applyCircuitBreaker(mockPjp);
+		Object value = aspect.applyCircuitBreaker(mockPjp, ann);
 		verify(mockPjp);
 		assertSame(value, returnValue);
 		assertEquals("Wrong state", "ClosedState", aspect.getCurrentState());
@@ -115,10 +144,10 @@ public class CircuitBreakerAspectTest
 		expect(mockPjp.proceed()).andReturn(returnValue).times(totalCalls);
 		replay(mockPjp);
 		
-		aspect.applyCircuitBreaker(mockPjp);  // this call succeeds and resets the breaker
+		aspect.applyCircuitBreaker(mockPjp, ann);  // this call succeeds and resets the breaker
 		
 		for(int i = 0; i < count; i++)
-			aspect.applyCircuitBreaker(mockPjp);  // Now we are in closed state so it should keep working
+			aspect.applyCircuitBreaker(mockPjp, ann);  // Now we are in closed state so it should keep working
 		
 		verify(mockPjp);
 	}
@@ -134,7 +163,7 @@ public class CircuitBreakerAspectTest
 		
 		try
 		{
-			aspect.applyCircuitBreaker(mockPjp);  // this call fails and should trip breaker
+			aspect.applyCircuitBreaker(mockPjp, ann);  // this call fails and should trip breaker
 			fail("This is supposed to fail; the test is hosed");
 		}
 		catch(RuntimeException e1) // NOPMD
@@ -144,7 +173,7 @@ public class CircuitBreakerAspectTest
 		
 		try
 		{
-			aspect.applyCircuitBreaker(mockPjp);
+			aspect.applyCircuitBreaker(mockPjp, ann);
 			fail("Breaker didn't open again");
 		}
 		catch(CircuitBreakerException e)  // NOPMD
@@ -182,7 +211,7 @@ public class CircuitBreakerAspectTest
 		{
 			try
 			{
-				aspect.applyCircuitBreaker(mockPjp);
+				aspect.applyCircuitBreaker(mockPjp, ann);
 				assertEquals("Wrong error count", i, aspect.getCurrentFailureCount());
 			}
 			catch(Throwable e)	// NOPMD
@@ -196,4 +225,472 @@ public class CircuitBreakerAspectTest
 	}
 	
 
+	@Test
+	public void testWindowTripsOnFailureRateEvenWithSuccessesInBetween() throws Throwable
+	{
+		Method windowedMethod = MyService.class.getMethod("windowedServiceMethod");
+		CircuitBreakable windowed = windowedMethod.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint windowedPjp = createJoinPoint(windowedMethod);
+		// alternate success and failure: a consecutive-failure breaker would never trip on this
+		expect(windowedPjp.proceed()).andReturn(returnValue);
+		expect(windowedPjp.proceed()).andThrow(new RuntimeException());
+		expect(windowedPjp.proceed()).andReturn(returnValue);
+		expect(windowedPjp.proceed()).andThrow(new RuntimeException());
+		expect(windowedPjp.proceed()).andReturn(returnValue);
+		replay(windowedPjp);
+		
+		for(int i = 0; i < 5; i++)
+		{
+			try
+			{
+				aspect.applyCircuitBreaker(windowedPjp, windowed);
+			}
+			catch(RuntimeException e) // NOPMD
+			{
+				// every other call fails
+			}
+		}
+		
+		CircuitBreaker breaker = aspect.getCircuitBreaker("MyService.windowedServiceMethod");
+		assertEquals("Wrong detection mode", "COUNT_WINDOW", breaker.getFailureDetection());
+		assertEquals("40% failures should have tripped the breaker", "OpenState", breaker.getCurrentState());
+		verify(windowedPjp);
+	}
+
+	@Test
+	public void testWindowDoesNotTripBelowMinimumNumberOfCalls() throws Throwable
+	{
+		Method windowedMethod = MyService.class.getMethod("windowedServiceMethod");
+		CircuitBreakable windowed = windowedMethod.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint windowedPjp = createJoinPoint(windowedMethod);
+		expect(windowedPjp.proceed()).andThrow(new RuntimeException()).times(4);
+		replay(windowedPjp);
+		
+		for(int i = 0; i < 4; i++)
+		{
+			try
+			{
+				aspect.applyCircuitBreaker(windowedPjp, windowed);
+			}
+			catch(RuntimeException e) // NOPMD
+			{
+			}
+		}
+		
+		CircuitBreaker breaker = aspect.getCircuitBreaker("MyService.windowedServiceMethod");
+		assertEquals("Breaker tripped before the window had enough calls", "ClosedState", breaker.getCurrentState());
+		assertEquals(4, breaker.getCurrentFailureCount());
+		assertEquals(4, breaker.getNumberOfBufferedCalls());
+		assertEquals(100.0, breaker.getFailureRate(), 0.001);
+	}
+
+	@Test
+	public void testFailingMethodDoesNotOpenTheBreakerOfAnotherMethod() throws Throwable
+	{
+		Method healthyMethod = MyService.class.getMethod("healthyServiceMethod");
+		CircuitBreakable healthy = healthyMethod.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint healthyPjp = createJoinPoint(healthyMethod);
+		expect(healthyPjp.proceed()).andReturn(returnValue);
+		replay(healthyPjp);
+		
+		aspect.getCircuitBreaker("MyService.serviceMethod").tripBreaker();
+		
+		assertSame(returnValue, aspect.applyCircuitBreaker(healthyPjp, healthy));
+		assertEquals("ClosedState", aspect.getCircuitBreaker("MyService.healthyServiceMethod").getCurrentState());
+		assertEquals("Aspect should report the worst breaker", "OpenState", aspect.getCurrentState());
+		verify(healthyPjp);
+	}
+
+	@Test
+	public void testMethodsWithTheSameNameShareABreaker() throws Throwable
+	{
+		Method first = MyService.class.getMethod("firstNamedMethod");
+		Method second = MyService.class.getMethod("secondNamedMethod");
+		CircuitBreaker breaker = aspect.getCircuitBreaker(first, first.getAnnotation(CircuitBreakable.class));
+		assertSame(breaker, aspect.getCircuitBreaker(second, second.getAnnotation(CircuitBreakable.class)));
+		assertEquals("sharedBackend", breaker.getName());
+	}
+
+	static class SharingService
+	{
+		@CircuitBreakable(name="shared")
+		public String first() { return "first"; }
+
+		@CircuitBreakable(name="shared", fallback="cached", lastKnownGoodCacheSize=10)
+		public String sameSettings() { return "same"; }
+
+		@CircuitBreakable(name="shared", timeoutMs=500)
+		public String differentSettings() { return "different"; }
+
+		String cached() { return "cached"; }
+	}
+
+	@Test
+	public void testMethodsSharingABreakerMustAgreeOnItsSettings() throws Exception
+	{
+		Method first = SharingService.class.getMethod("first");
+		Method same = SharingService.class.getMethod("sameSettings");
+		Method different = SharingService.class.getMethod("differentSettings");
+		CircuitBreaker breaker = aspect.getCircuitBreaker(first, first.getAnnotation(CircuitBreakable.class));
+		assertSame(breaker, aspect.getCircuitBreaker(same, same.getAnnotation(CircuitBreakable.class)));
+		try
+		{
+			aspect.getCircuitBreaker(different, different.getAnnotation(CircuitBreakable.class));
+			fail("Should have refused the different timeout");
+		}
+		catch(IllegalStateException e)
+		{
+			assertTrue(e.getMessage(), e.getMessage().contains("timeoutMs"));
+		}
+	}
+
+	@Test
+	public void testHalfOpenLimitsTrialCallsAndNeedsSeveralSuccessesToClose() throws Throwable
+	{
+		Method method = MyService.class.getMethod("gentlyRecoveringMethod");
+		CircuitBreaker breaker = aspect.getCircuitBreaker(method, method.getAnnotation(CircuitBreakable.class));
+		breaker.attemptReset();
+		ICircuitBreakerState halfOpen = breaker.getState();
+		
+		// two trials in flight at once
+		assertSame(halfOpen, halfOpen.preInvoke(breaker));
+		assertSame(halfOpen, halfOpen.preInvoke(breaker));
+		try
+		{
+			halfOpen.preInvoke(breaker);
+			fail("Third concurrent trial should have been rejected");
+		}
+		catch(CircuitBreakerException e) // NOPMD
+		{
+			// fail fast while the trials are running
+		}
+		
+		halfOpen.postInvoke(breaker, 0);
+		halfOpen.postInvoke(breaker, 0);
+		assertEquals("Two successes should not be enough", "HalfOpenState", breaker.getCurrentState());
+		
+		halfOpen.preInvoke(breaker);
+		halfOpen.postInvoke(breaker, 0);
+		assertEquals("ClosedState", breaker.getCurrentState());
+	}
+
+	@Test
+	public void testIgnoredExceptionsDoNotCountAndTripExceptionsOpenAtOnce() throws Throwable
+	{
+		Method method = MyService.class.getMethod("classifyingMethod");
+		CircuitBreakable classifying = method.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint pjp = createJoinPoint(method);
+		// NumberFormatException is a subclass of the ignored IllegalArgumentException
+		expect(pjp.proceed()).andThrow(new NumberFormatException()).times(5);
+		expect(pjp.proceed()).andThrow(new SecurityException());
+		replay(pjp);
+		
+		for(int i = 0; i < 5; i++)
+		{
+			try
+			{
+				aspect.applyCircuitBreaker(pjp, classifying);
+				fail("The exception should have been passed on");
+			}
+			catch(NumberFormatException e) // NOPMD
+			{
+			}
+		}
+		CircuitBreaker breaker = aspect.getCircuitBreaker("MyService.classifyingMethod");
+		assertEquals("ClosedState", breaker.getCurrentState());
+		assertEquals(0, breaker.getCurrentFailureCount());
+		
+		try
+		{
+			aspect.applyCircuitBreaker(pjp, classifying);
+			fail("The exception should have been passed on");
+		}
+		catch(SecurityException e) // NOPMD
+		{
+		}
+		assertEquals("OpenState", breaker.getCurrentState());
+		verify(pjp);
+	}
+
+	@Test
+	public void testResultPredicateCountsReturnedValuesAsFailures() throws Throwable
+	{
+		Method method = MyService.class.getMethod("classifyingMethod");
+		CircuitBreakable classifying = method.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint pjp = createJoinPoint(method);
+		expect(pjp.proceed()).andReturn(null).times(3);
+		replay(pjp);
+		aspect.setFailureThreshold(3);
+		
+		for(int i = 0; i < 3; i++) assertEquals(null, aspect.applyCircuitBreaker(pjp, classifying));
+		assertEquals("OpenState", aspect.getCircuitBreaker("MyService.classifyingMethod").getCurrentState());
+		verify(pjp);
+	}
+
+	@Test
+	public void testIgnoredExceptionGivesBackTheHalfOpenTrialPermit() throws Throwable
+	{
+		Method method = MyService.class.getMethod("classifyingMethod");
+		CircuitBreakable classifying = method.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint pjp = createJoinPoint(method);
+		expect(pjp.proceed()).andThrow(new IllegalArgumentException());
+		expect(pjp.proceed()).andReturn("OK");
+		replay(pjp);
+		CircuitBreaker breaker = aspect.getCircuitBreaker(method, classifying);
+		breaker.attemptReset();
+		
+		try
+		{
+			aspect.applyCircuitBreaker(pjp, classifying);
+			fail("The exception should have been passed on");
+		}
+		catch(IllegalArgumentException e) // NOPMD
+		{
+		}
+		assertEquals("HalfOpenState", breaker.getCurrentState());
+		assertEquals("OK", aspect.applyCircuitBreaker(pjp, classifying));
+		assertEquals("ClosedState", breaker.getCurrentState());
+	}
+
+	@Test
+	public void testSlowSuccessesDontCountUnlessASlowCallDurationIsSet() throws Throwable
+	{
+		Method method = MyService.class.getMethod("serviceMethod");
+		CircuitBreakable plain = method.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint pjp = createJoinPoint(method);
+		expect(pjp.proceed()).andAnswer(() -> { Thread.sleep(30); return "slow"; }).times(3);
+		replay(pjp);
+		aspect.setFailureThreshold(1);
+
+		for(int i = 0; i < 3; i++) assertEquals("slow", aspect.applyCircuitBreaker(pjp, plain));
+		CircuitBreaker breaker = aspect.getCircuitBreaker(method, plain);
+		assertEquals("ClosedState", breaker.getCurrentState());
+		assertEquals(0, breaker.getSlowCallDurationMs());
+		assertEquals(0, breaker.getNumberOfSlowCalls());
+		assertFalse(breaker.isSlowCall(TimeUnit.HOURS.toNanos(1)));
+		verify(pjp);
+	}
+
+	@Test
+	public void testSlowSuccessesCountAsFailures() throws Throwable
+	{
+		Method method = MyService.class.getMethod("slowMethod");
+		CircuitBreakable slow = method.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint pjp = createJoinPoint(method);
+		expect(pjp.proceed()).andReturn("fast");
+		expect(pjp.proceed()).andAnswer(() -> { Thread.sleep(30); return "slow"; }).times(3);
+		replay(pjp);
+		aspect.setFailureThreshold(3);
+		
+		assertEquals("fast", aspect.applyCircuitBreaker(pjp, slow));
+		for(int i = 0; i < 3; i++) assertEquals("slow", aspect.applyCircuitBreaker(pjp, slow));
+		CircuitBreaker breaker = aspect.getCircuitBreaker("MyService.slowMethod");
+		assertEquals("OpenState", breaker.getCurrentState());
+		assertEquals(3, breaker.getNumberOfSlowCalls());
+		assertEquals(20, breaker.getSlowCallDurationMs());
+		verify(pjp);
+	}
+
+	@Test
+	public void testCallIsAbandonedAtTheTimeout() throws Throwable
+	{
+		Method method = MyService.class.getMethod("timedMethod");
+		CircuitBreakable timed = method.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint pjp = createJoinPoint(method);
+		expect(pjp.proceed()).andReturn("quick");
+		expect(pjp.proceed()).andAnswer(() -> { Thread.sleep(10000); return "too late"; });
+		replay(pjp);
+		
+		assertEquals("quick", aspect.applyCircuitBreaker(pjp, timed));
+		long start = System.nanoTime();
+		try
+		{
+			aspect.applyCircuitBreaker(pjp, timed);
+			fail("The call should have timed out");
+		}
+		catch(CircuitBreakerTimeoutException e) // NOPMD
+		{
+		}
+		assertTrue(System.nanoTime() - start < 5_000_000_000L);
+		CircuitBreaker breaker = aspect.getCircuitBreaker("MyService.timedMethod");
+		assertEquals(1, breaker.getNumberOfTimeouts());
+		assertEquals(1, breaker.getCurrentFailureCount());
+		assertEquals(1, aspect.getNumberOfTimeouts());
+	}
+
+	@Test
+	public void testLateHalfOpenSuccessKeepsTheFailuresOfTheNewTrip() throws Throwable
+	{
+		CircuitBreaker breaker = aspect.getCircuitBreaker("MyService.serviceMethod");
+		breaker.setFailureThreshold(2);
+		breaker.attemptReset();
+		HalfOpenState trial = (HalfOpenState) breaker.getState();
+		// meanwhile the breaker is reset and fails again
+		breaker.reset();
+		breaker.getState().onError(breaker, new RuntimeException());
+		assertEquals(1, breaker.getCurrentFailureCount());
+
+		trial.postInvoke(breaker, 0);
+		assertEquals(1, breaker.getCurrentFailureCount());
+	}
+
+	@Test
+	public void testOnlyOneCallerMovesAnExpiredOpenBreakerToHalfOpen() throws Throwable
+	{
+		CircuitBreaker breaker = aspect.getCircuitBreaker("MyService.serviceMethod");
+		breaker.setRecoveryTimeout(-1);
+		breaker.tripBreaker();
+		ICircuitBreakerState open = breaker.getState();
+		
+		ICircuitBreakerState trial = open.preInvoke(breaker);
+		assertEquals("HalfOpenState", breaker.getCurrentState());
+		try
+		{
+			// a second caller that also saw the open state must not get its own half-open state
+			open.preInvoke(breaker);
+			fail("Second caller should have failed fast");
+		}
+		catch(CircuitBreakerException e) // NOPMD
+		{
+		}
+		assertSame(trial, breaker.getState());
+	}
+
+	@Test
+	public void testOpenBreakerCallsTheFallback() throws Throwable
+	{
+		Method method = MyService.class.getMethod("quote", String.class);
+		CircuitBreakable quote = method.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint pjp = createJoinPoint(method);
+		expect(pjp.getTarget()).andReturn(new MyService());
+		expect(pjp.getArgs()).andReturn(new Object[] { "ACME" }).anyTimes();
+		replay(pjp);
+		CircuitBreaker breaker = aspect.getCircuitBreaker(method, quote);
+		breaker.tripBreaker();
+
+		assertEquals("stale ACME", aspect.applyCircuitBreaker(pjp, quote));
+		assertEquals(1, breaker.getNumberOfFallbacks());
+		verify(pjp);
+	}
+
+	@Test
+	public void testOpenBreakerServesTheLastKnownGoodResult() throws Throwable
+	{
+		Method method = MyService.class.getMethod("lookup", String.class);
+		CircuitBreakable lookup = method.getAnnotation(CircuitBreakable.class);
+		ProceedingJoinPoint pjp = createJoinPoint(method);
+		expect(pjp.proceed()).andReturn("first");
+		expect(pjp.getArgs()).andReturn(new Object[] { "a" }).times(2);
+		expect(pjp.getArgs()).andReturn(new Object[] { "b" });
+		replay(pjp);
+
+		assertEquals("first", aspect.applyCircuitBreaker(pjp, lookup));
+		CircuitBreaker breaker = aspect.getCircuitBreaker(method, lookup);
+		breaker.tripBreaker();
+		assertEquals("first", aspect.applyCircuitBreaker(pjp, lookup));
+		assertEquals(1, breaker.getNumberOfLastKnownGoodResponses());
+		try
+		{
+			// nothing remembered for these arguments, and no fallback
+			aspect.applyCircuitBreaker(pjp, lookup);
+			fail("Should have failed fast");
+		}
+		catch(CircuitBreakerException e) // NOPMD
+		{
+		}
+		verify(pjp);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testMissingFallbackFailsWhenTheBreakerIsCreated() throws Exception
+	{
+		aspect.getKeyedManagedResources(BadFallback.class);
+	}
+
+	public static class BadFallback
+	{
+		@CircuitBreakable(fallback="noSuchMethod")
+		public void call()
+		{
+		}
+	}
+
+	@Test
+	public void testStateChangesAreRecordedAndSentToListeners() throws Throwable
+	{
+		List<CircuitBreakerEvent> heard = new ArrayList<>();
+		aspect.setListenerExecutor(Runnable::run);
+		aspect.setListeners(List.of(heard::add));
+		aspect.setFailureThreshold(1);
+		expect(mockPjp.proceed()).andThrow(new IllegalStateException());
+		replay(mockPjp);
+		try
+		{
+			aspect.applyCircuitBreaker(mockPjp, ann);
+			fail("Should have thrown");
+		}
+		catch(IllegalStateException e) // NOPMD
+		{
+		}
+		CircuitBreaker breaker = aspect.getCircuitBreaker("MyService.serviceMethod");
+		breaker.attemptReset();
+		breaker.reset();
+
+		List<CircuitBreakerEvent> events = breaker.getRecentEvents();
+		assertEquals(heard, events);
+		assertEquals(3, events.size());
+		assertEquals(CircuitBreakerEvent.Transition.OPENED, events.get(0).getTransition());
+		assertEquals(IllegalStateException.class.getName(), events.get(0).getExceptionType());
+		assertEquals(1, events.get(0).getFailureCount());
+		assertEquals("OpenState", events.get(1).getFromState());
+		assertEquals(CircuitBreakerEvent.Transition.CLOSED, events.get(2).getTransition());
+
+		TabularData dump = aspect.dumpRecentEvents();
+		assertEquals(3, dump.size());
+		assertEquals("HALF_OPENED", dump.get(new Object[] { "MyService.serviceMethod", 1L }).get("transition"));
+	}
+
+	@Test
+	public void testJdkProxyUsesTheBreakersExportedForTheImplementation() throws Exception
+	{
+		Map<String, Object> exported = aspect.getKeyedManagedResources(Greeter.class);
+		AspectJProxyFactory factory = new AspectJProxyFactory(new Greeter());
+		factory.addAspect(aspect);
+		IGreeter proxy = factory.getProxy();
+		assertTrue(Proxy.isProxyClass(proxy.getClass()));
+
+		assertEquals("hello", proxy.greet("hello"));
+		assertEquals("hello2", proxy.greet("hello", 2));
+		CircuitBreaker single = aspect.getCircuitBreaker("Greeter.greet(String)");
+		CircuitBreaker repeated = aspect.getCircuitBreaker("Greeter.greet(String,int)");
+		assertSame(exported.get("Greeter.greet(String)"), single);
+		assertSame(exported.get("Greeter.greet(String,int)"), repeated);
+		assertEquals(2, repeated.getPermittedCallsInHalfOpenState());
+		assertEquals(1, single.getPermittedCallsInHalfOpenState());
+		assertNull(aspect.getCircuitBreaker("IGreeter.greet"));
+	}
+
+	public interface IGreeter
+	{
+		String greet(String greeting);
+
+		String greet(String greeting, int times);
+	}
+
+	public static class Greeter implements IGreeter
+	{
+		@Override
+		@CircuitBreakable
+		public String greet(String greeting)
+		{
+			return greeting;
+		}
+
+		@Override
+		@CircuitBreakable(permittedCallsInHalfOpenState=2)
+		public String greet(String greeting, int times)
+		{
+			return greeting + times;
+		}
+	}
 }
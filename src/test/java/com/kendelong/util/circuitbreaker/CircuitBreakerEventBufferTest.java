@@ -0,0 +1,37 @@
+package com.kendelong.util.circuitbreaker;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.kendelong.util.circuitbreaker.CircuitBreakerEvent.Transition;
+
+public class CircuitBreakerEventBufferTest
+{
+	@Test
+	public void testKeepsTheNewestEventsOldestFirst()
+	{
+		CircuitBreakerEventBuffer buffer = new CircuitBreakerEventBuffer(3);
+		for(int i = 0; i < 5; i++)
+		{
+			buffer.add(new CircuitBreakerEvent("b", buffer.nextSequence(), i, Transition.OPENED, "ClosedState", null, i));
+		}
+		List<CircuitBreakerEvent> events = buffer.getEvents();
+		assertEquals(3, events.size());
+		assertEquals(2, events.get(0).getSequence());
+		assertEquals(4, events.get(2).getSequence());
+		assertEquals(5, buffer.getTotalEvents());
+	}
+
+	@Test
+	public void testSkipsASlotThatHasNotBeenWrittenYet()
+	{
+		CircuitBreakerEventBuffer buffer = new CircuitBreakerEventBuffer(4);
+		buffer.add(new CircuitBreakerEvent("b", buffer.nextSequence(), 0, Transition.OPENED, "ClosedState", null, 3));
+		// a writer that has its sequence number but hasn't stored the event
+		buffer.nextSequence();
+		assertEquals(1, buffer.getEvents().size());
+	}
+}
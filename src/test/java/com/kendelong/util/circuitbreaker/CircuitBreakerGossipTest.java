@@ -0,0 +1,262 @@
+package com.kendelong.util.circuitbreaker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kendelong.util.circuitbreaker.CircuitBreakerEvent.Transition;
+
+public class CircuitBreakerGossipTest
+{
+	private static final String BREAKER = "MyService.serviceMethod";
+
+	private final List<CircuitBreakerGossip> started = new ArrayList<>();
+	private final long[] receiverTime = { 1000 };
+	private CircuitBreakerGossip receiver;
+	private CircuitBreaker breaker;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		receiver = new CircuitBreakerGossip()
+		{
+			@Override
+			protected long getTime()
+			{
+				return receiverTime[0];
+			}
+		};
+		receiver.setNodeId("receiver");
+		breaker = breakerFor(receiver);
+	}
+
+	@After
+	public void tearDown()
+	{
+		started.forEach(CircuitBreakerGossip::stop);
+	}
+
+	@Test
+	public void testStaleAndDuplicateDatagramsAreDropped()
+	{
+		CircuitBreakerGossip sender = node("a", 1000);
+		byte[] opened = sender.encode(BREAKER, Transition.OPENED, sender.nextEpoch());
+		receive(opened);
+		assertEquals("OpenState", breaker.getCurrentState());
+		assertEquals("a", breaker.getRecentEvents().get(0).getOrigin());
+
+		receive(opened);
+		receive(sender.encode(BREAKER, Transition.HALF_OPENED, 999));
+		assertEquals("OpenState", breaker.getCurrentState());
+		assertEquals(3, receiver.getNumberOfDatagramsReceived());
+		assertEquals(2, receiver.getNumberOfStaleDatagrams());
+		assertEquals(1, receiver.getNumberOfChangesFollowed());
+	}
+
+	@Test
+	public void testOwnDatagramsAreIgnored()
+	{
+		receive(receiver.encode(BREAKER, Transition.OPENED, receiver.nextEpoch()));
+		assertEquals("ClosedState", breaker.getCurrentState());
+		assertEquals(0, receiver.getNumberOfDatagramsReceived());
+	}
+
+	@Test
+	public void testEqualEpochsFromDifferentNodesAreBothFollowed()
+	{
+		CircuitBreakerGossip b = node("b", 1000);
+		CircuitBreakerGossip c = node("c", 1000);
+		receive(b.encode(BREAKER, Transition.OPENED, b.nextEpoch()));
+		breaker.reset();
+		receive(c.encode(BREAKER, Transition.OPENED, c.nextEpoch()));
+		assertEquals("OpenState", breaker.getCurrentState());
+		assertEquals(0, receiver.getNumberOfStaleDatagrams());
+		assertEquals(2, receiver.getNumberOfChangesFollowed());
+	}
+
+	@Test
+	public void testARestartedNodeIsStillFollowed()
+	{
+		CircuitBreakerGossip before = node("a", 1000);
+		receive(before.encode(BREAKER, Transition.OPENED, before.nextEpoch()));
+		receive(before.encode(BREAKER, Transition.HALF_OPENED, before.nextEpoch()));
+		breaker.reset();
+
+		// same node id, a fresh counter, and a minute later
+		CircuitBreakerGossip after = node("a", 61000);
+		receive(after.encode(BREAKER, Transition.OPENED, after.nextEpoch()));
+		assertEquals("OpenState", breaker.getCurrentState());
+		assertEquals(0, receiver.getNumberOfStaleDatagrams());
+	}
+
+	@Test
+	public void testNodesThatGoQuietAreForgotten()
+	{
+		receiver.setNodeExpiryMs(60000);
+		CircuitBreakerGossip a = node("a", 1000);
+		receive(a.encode(BREAKER, Transition.OPENED, a.nextEpoch()));
+		assertEquals(1, receiver.getNumberOfKnownNodes());
+
+		receiverTime[0] = 62000;
+		CircuitBreakerGossip b = node("b", 62000);
+		receive(b.encode(BREAKER, Transition.HALF_OPENED, b.nextEpoch()));
+		assertEquals(1, receiver.getNumberOfKnownNodes());
+	}
+
+	@Test
+	public void testOnlyTheNodesHeardFromMostRecentlyAreKept()
+	{
+		receiver.setMaxNodes(2);
+		for(String id : new String[] { "a", "b", "c", "d" })
+		{
+			receiverTime[0]++;
+			CircuitBreakerGossip sender = node(id, 1000);
+			receive(sender.encode(BREAKER, Transition.OPENED, sender.nextEpoch()));
+		}
+		assertEquals(2, receiver.getNumberOfKnownNodes());
+
+		// "d" is remembered, so its old datagram is still recognized
+		receive(node("d", 1000).encode(BREAKER, Transition.OPENED, 1000));
+		assertEquals(1, receiver.getNumberOfStaleDatagrams());
+	}
+
+	@Test
+	public void testEpochsFarBehindTheClockAreStale()
+	{
+		receiver.setNodeExpiryMs(60000);
+		receiverTime[0] = 100000;
+		CircuitBreakerGossip sender = node("a", 1000);
+		receive(sender.encode(BREAKER, Transition.OPENED, sender.nextEpoch()));
+		assertEquals("ClosedState", breaker.getCurrentState());
+		assertEquals(1, receiver.getNumberOfStaleDatagrams());
+	}
+
+	@Test
+	public void testEpochsGoUpWhenTheClockDoesNot()
+	{
+		CircuitBreakerGossip sender = node("a", 1000);
+		assertEquals(1000, sender.nextEpoch());
+		assertEquals(1001, sender.nextEpoch());
+		assertEquals(1002, sender.nextEpoch());
+	}
+
+	@Test
+	public void testMalformedDatagramsAreCountedAndIgnored()
+	{
+		CircuitBreakerGossip sender = node("a", 1000);
+		byte[] good = sender.encode(BREAKER, Transition.OPENED, sender.nextEpoch());
+		receive(new byte[] { 1, 2, 3 });
+		receive(Arrays.copyOf(good, good.length - 3));
+		byte[] badTransition = good.clone();
+		badTransition[1 + 2 + "a".length() + 2 + BREAKER.length()] = 42;
+		receive(badTransition);
+		receive(new byte[0]);
+
+		assertEquals("ClosedState", breaker.getCurrentState());
+		assertEquals(4, receiver.getNumberOfMalformedDatagrams());
+		assertEquals(0, receiver.getNumberOfDatagramsReceived());
+	}
+
+	@Test
+	public void testWithASharedSecretOnlySignedDatagramsAreFollowed()
+	{
+		receiver.setSharedSecret("s3cret");
+		CircuitBreakerGossip unsigned = node("a", 1000);
+		CircuitBreakerGossip wrongSecret = node("b", 1000);
+		wrongSecret.setSharedSecret("guess");
+		CircuitBreakerGossip signed = node("c", 1000);
+		signed.setSharedSecret("s3cret");
+
+		receive(unsigned.encode(BREAKER, Transition.OPENED, unsigned.nextEpoch()));
+		receive(wrongSecret.encode(BREAKER, Transition.OPENED, wrongSecret.nextEpoch()));
+		assertEquals("ClosedState", breaker.getCurrentState());
+		assertEquals(2, receiver.getNumberOfUnauthenticatedDatagrams());
+
+		receive(signed.encode(BREAKER, Transition.OPENED, signed.nextEpoch()));
+		assertEquals("OpenState", breaker.getCurrentState());
+	}
+
+	@Test
+	public void testFollowedChangesAreNotSentOn()
+	{
+		receiver.onStateTransition(new CircuitBreakerEvent(BREAKER, 1, 1000, Transition.OPENED, "ClosedState", null, 0, "a"));
+		assertEquals(0, receiver.getNumberOfDatagramsSent());
+	}
+
+	@Test
+	public void testPeersFollowATripAndAResetOverUdp() throws Exception
+	{
+		List<CircuitBreakerGossip> nodes = new ArrayList<>();
+		List<CircuitBreaker> breakers = new ArrayList<>();
+		for(int i = 0; i < 3; i++)
+		{
+			CircuitBreakerGossip gossip = new CircuitBreakerGossip();
+			gossip.setNodeId("node" + i);
+			gossip.setSharedSecret("s3cret");
+			gossip.start();
+			started.add(gossip);
+			nodes.add(gossip);
+			breakers.add(breakerFor(gossip));
+		}
+		for(CircuitBreakerGossip gossip : nodes)
+		{
+			List<String> peers = new ArrayList<>();
+			for(CircuitBreakerGossip other : nodes)
+			{
+				if(other != gossip) peers.add("localhost:" + other.getLocalPort());
+			}
+			gossip.setPeers(peers);
+		}
+
+		breakers.get(0).tripBreaker();
+		waitFor(() -> breakers.stream().allMatch(b -> b.getCurrentState().equals("OpenState")));
+		assertEquals("node0", breakers.get(1).getRecentEvents().get(0).getOrigin());
+
+		breakers.get(2).attemptReset();
+		waitFor(() -> breakers.stream().allMatch(b -> b.getCurrentState().equals("HalfOpenState")));
+		assertEquals("node2", breakers.get(0).getRecentEvents().get(1).getOrigin());
+	}
+
+	private void receive(byte[] datagram)
+	{
+		receiver.handle(datagram, datagram.length, null);
+	}
+
+	private static CircuitBreakerGossip node(String nodeId, long time)
+	{
+		CircuitBreakerGossip gossip = new CircuitBreakerGossip()
+		{
+			@Override
+			protected long getTime()
+			{
+				return time;
+			}
+		};
+		gossip.setNodeId(nodeId);
+		return gossip;
+	}
+
+	private static CircuitBreaker breakerFor(CircuitBreakerGossip gossip) throws NoSuchMethodException
+	{
+		Method method = MyService.class.getMethod("serviceMethod");
+		CircuitBreakerAspect aspect = new CircuitBreakerAspect();
+		aspect.setGossip(gossip);
+		return aspect.getCircuitBreaker(method, method.getAnnotation(CircuitBreakable.class));
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + 5000;
+		while(!condition.getAsBoolean() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+		assertTrue(condition.getAsBoolean());
+	}
+}
@@ -1,5 +1,8 @@
 package com.kendelong.util.circuitbreaker;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.management.ObjectName;
 
 import com.kendelong.util.spring.JmxExportingAspectPostProcessor;
@@ -7,15 +10,22 @@ import com.kendelong.util.spring.JmxExportingAspectPostProcessor;
 public class JmxExporterStub extends JmxExportingAspectPostProcessor
 {
 	private Object pojo;
+	private final Map<String, Object> registered = new ConcurrentHashMap<>();
 	
 	public Object getPojo()
 	{
 		return pojo;
 	}
 
+	public Map<String, Object> getRegistered()
+	{
+		return registered;
+	}
+
 	@Override
 	protected void registerMBean(ObjectName oname, Object target, String beanName)
 	{
 		pojo = target;
+		registered.put(oname.toString(), target);
 	}
 }
@@ -0,0 +1,64 @@
+package com.kendelong.util.circuitbreaker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LastKnownGoodCacheTest
+{
+	@Test
+	public void testKeepsAtMostMaxSizeAndDropsTheLeastRecentlyUsed()
+	{
+		LastKnownGoodCache cache = new LastKnownGoodCache(100, 60000);
+		cache.put(new Object[] { "hot" }, "kept");
+		for(int i = 0; i < 1000; i++)
+		{
+			cache.put(new Object[] { "key" + i }, i);
+			assertEquals("kept", cache.get(new Object[] { "hot" }).getValue());
+		}
+		assertTrue(cache.size() <= 100);
+		assertFalse(cache.contains(new Object[] { "key0" }));
+		assertTrue(cache.contains(new Object[] { "key999" }));
+	}
+
+	@Test
+	public void testSmallCachesStillHoldMaxSizeEntries()
+	{
+		for(int maxSize : new int[] { 3, 16, 31 })
+		{
+			LastKnownGoodCache cache = new LastKnownGoodCache(maxSize, 60000);
+			for(int i = 0; i < maxSize; i++) cache.put(new Object[] { i }, i);
+			assertEquals(maxSize, cache.size());
+			for(int i = 0; i < maxSize; i++) assertEquals(i, cache.get(new Object[] { i }).getValue());
+
+			// one more, and the least recently used goes
+			cache.put(null, "none");
+			assertEquals(maxSize, cache.size());
+			assertFalse(cache.contains(new Object[] { 0 }));
+			assertEquals("none", cache.get(new Object[0]).getValue());
+		}
+	}
+
+	@Test
+	public void testOldEntriesAreNotServed()
+	{
+		long[] now = { 1000 };
+		LastKnownGoodCache cache = new LastKnownGoodCache(10, 500)
+		{
+			@Override
+			protected long getTime()
+			{
+				return now[0];
+			}
+		};
+		cache.put(new Object[] { "a" }, null);
+		assertTrue(cache.contains(new Object[] { "a" }));
+		assertNull(cache.get(new Object[] { "a" }).getValue());
+		now[0] = 1501;
+		assertNull(cache.get(new Object[] { "a" }));
+		assertEquals(0, cache.size());
+	}
+}
@@ -8,4 +8,76 @@ public class MyService
 	{
 		throw new RuntimeException();
 	}
+
+	@CircuitBreakable(failureDetection=FailureDetection.COUNT_WINDOW, windowSize=10, minimumNumberOfCalls=5, failureRateThreshold=40)
+	public void windowedServiceMethod()
+	{
+		throw new RuntimeException();
+	}
+
+	@CircuitBreakable
+	public String healthyServiceMethod()
+	{
+		return "OK";
+	}
+
+	@CircuitBreakable(permittedCallsInHalfOpenState=2, successfulCallsToClose=3)
+	public void gentlyRecoveringMethod()
+	{
+	}
+
+	@CircuitBreakable(name="sharedBackend")
+	public void firstNamedMethod()
+	{
+	}
+
+	@CircuitBreakable(name="sharedBackend")
+	public void secondNamedMethod()
+	{
+	}
+
+	@CircuitBreakable(ignoreExceptions=IllegalArgumentException.class, tripExceptions=SecurityException.class,
+			resultPredicate=NullResultIsFailure.class)
+	public String classifyingMethod()
+	{
+		return "OK";
+	}
+
+	@CircuitBreakable(slowCallDurationMs=20)
+	public String slowMethod()
+	{
+		return "OK";
+	}
+
+	@CircuitBreakable(timeoutMs=50)
+	public String timedMethod()
+	{
+		return "OK";
+	}
+
+	@CircuitBreakable(fallback="cachedQuote")
+	public String quote(String symbol)
+	{
+		return "live " + symbol;
+	}
+
+	String cachedQuote(String symbol)
+	{
+		return "stale " + symbol;
+	}
+
+	@CircuitBreakable(lastKnownGoodCacheSize=2)
+	public String lookup(String key)
+	{
+		return key;
+	}
+
+	public static class NullResultIsFailure implements IResultPredicate
+	{
+		@Override
+		public boolean isFailure(Object result)
+		{
+			return result == null;
+		}
+	}
 }
@@ -0,0 +1,85 @@
+package com.kendelong.util.circuitbreaker;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SlidingWindowTest
+{
+	@Test
+	public void givenCountWindow_whenItWrapsAround_thenOldestCallsDropOut()
+	{
+		CountBasedSlidingWindow window = new CountBasedSlidingWindow(3);
+		window.record(true, false);
+		window.record(true, true);
+		window.record(false, false);
+		assertEquals(3, window.getNumberOfCalls());
+		assertEquals(2, window.getNumberOfFailedCalls());
+		assertEquals(1, window.getNumberOfSlowCalls());
+
+		window.record(false, false);
+		window.record(false, false);
+		assertEquals(3, window.getNumberOfCalls());
+		assertEquals(0, window.getNumberOfFailedCalls());
+		assertEquals(0, window.getNumberOfSlowCalls());
+	}
+
+	@Test
+	public void givenCountWindow_whenReset_thenItIsEmpty()
+	{
+		CountBasedSlidingWindow window = new CountBasedSlidingWindow(5);
+		for(int i = 0; i < 7; i++) window.record(true, true);
+		window.reset();
+		assertEquals(0, window.getNumberOfCalls());
+		assertEquals(0, window.getNumberOfFailedCalls());
+		assertEquals(0, window.getNumberOfSlowCalls());
+	}
+
+	@Test
+	public void givenTimeWindow_whenTimePasses_thenOldBucketsExpire()
+	{
+		SettableTimeWindow window = new SettableTimeWindow(10);
+		window.setTime(100_000);
+		window.record(true, false);
+		window.record(false, true);
+		window.setTime(105_000);
+		window.record(false, false);
+		assertEquals(3, window.getNumberOfCalls());
+		assertEquals(1, window.getNumberOfFailedCalls());
+		assertEquals(1, window.getNumberOfSlowCalls());
+
+		// the first second has left the window, but its slot has not been reused yet
+		window.setTime(110_000);
+		assertEquals(1, window.getNumberOfCalls());
+		assertEquals(0, window.getNumberOfFailedCalls());
+
+		// same slot as the first second, one lap later
+		window.record(true, false);
+		assertEquals(2, window.getNumberOfCalls());
+		assertEquals(1, window.getNumberOfFailedCalls());
+
+		window.setTime(200_000);
+		assertEquals(0, window.getNumberOfCalls());
+	}
+
+	private static class SettableTimeWindow extends TimeBasedSlidingWindow
+	{
+		private long time;
+
+		SettableTimeWindow(int sizeInSeconds)
+		{
+			super(sizeInSeconds);
+		}
+
+		@Override
+		protected long getTime()
+		{
+			return time;
+		}
+
+		void setTime(long t)
+		{
+			time = t;
+		}
+	}
+}
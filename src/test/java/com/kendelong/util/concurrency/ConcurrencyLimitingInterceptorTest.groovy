@@ -9,19 +9,52 @@ import static org.junit.Assert.fail;
 import org.aopalliance.intercept.MethodInvocation;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.junit.Test;
-import org.aspectj.lang.Signature
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import org.aspectj.lang.reflect.MethodSignature
 
 import com.kendelong.util.concurrency.ConcurrencyLimitExceededException;
 import com.kendelong.util.concurrency.ConcurrencyLimitingAspect;
 
 public class ConcurrencyLimitingInterceptorTest
 {
-	private Signature signature = { return 'methodName' } as Signature
+	static class Throttled
+	{
+		void methodName() {}
+		void otherMethod() {}
+		void lookup(String key) {}
+		void lookup(int id) {}
+	}
+
+	private MethodSignature signature = signatureOf(Throttled.getDeclaredMethod('methodName'))
+
+	private MethodSignature signatureOf(java.lang.reflect.Method method)
+	{
+		[ getName: { method.name }, getMethod: { method } ] as MethodSignature
+	}
+
+	private ConcurrencyThrottle throttle(int limit, LimitAlgorithm algorithm = LimitAlgorithm.FIXED, long maxWaitMs = 0, int maxQueueDepth = 20, String name = '', long bulkheadTimeoutMs = 0, String[] partitions = [])
+	{
+		[ name: { name }, threadLimit: { limit }, limitAlgorithm: { algorithm }, minLimit: { 1 }, maxLimit: { 200 },
+			maxWaitMs: { maxWaitMs }, maxQueueDepth: { maxQueueDepth },
+			partitions: { partitions }, partitionArgument: { -1 }, partitionAttribute: { '' }, bulkheadTimeoutMs: { bulkheadTimeoutMs },
+			annotationType: { ConcurrencyThrottle.class } ] as ConcurrencyThrottle
+	}
+
+	// holds the only permit until the latch is released
+	private Thread occupy(ConcurrencyLimitingAspect interceptor, ConcurrencyThrottle annotation, CountDownLatch entered, CountDownLatch leave)
+	{
+		def pjp = [ getSignature: { signature }, proceed: { entered.countDown(); leave.await(); null } ] as ProceedingJoinPoint
+		Thread t = Thread.start { interceptor.applyConcurrencyThrottle(pjp, annotation) }
+		entered.await()
+		t
+	}
 
 	@Test(expected=ConcurrencyLimitExceededException.class)
 	public void testZeroLimitBlowsUp() throws Throwable
 	{
-		ConcurrencyThrottle annotation = [ threadLimit: { 0 }, annotationType: { ConcurrencyThrottle.class } ] as ConcurrencyThrottle
+		ConcurrencyThrottle annotation = throttle(0)
 		ConcurrencyLimitingAspect interceptor = new ConcurrencyLimitingAspect();
 		def pjp = { signature } as ProceedingJoinPoint
 		interceptor.applyConcurrencyThrottle(pjp, annotation);
@@ -31,7 +64,7 @@ public class ConcurrencyLimitingInterceptorTest
 	@Test
 	public void testFiniteLimitAllowsCall() throws Throwable
 	{
-		ConcurrencyThrottle annotation = [ threadLimit: { 20 }, annotationType: { ConcurrencyThrottle.class } ] as ConcurrencyThrottle
+		ConcurrencyThrottle annotation = throttle(20)
 		ProceedingJoinPoint mi = createMock(ProceedingJoinPoint.class);
 		expect(mi.getSignature()).andReturn(signature)
 		expect(mi.proceed()).andReturn(null);
@@ -42,5 +75,209 @@ public class ConcurrencyLimitingInterceptorTest
 		verify(mi);
 	}
 	
+	@Test
+	public void testAdaptiveLimitOnlyGrowsAsFarAsItIsUsed() throws Throwable
+	{
+		ConcurrencyLimitingAspect interceptor = new ConcurrencyLimitingAspect();
+		def pjp = { signature } as ProceedingJoinPoint
+		// one thread at a time keeps at least half of a limit of 1 or 2 busy, but not of 3
+		10.times { interceptor.applyConcurrencyThrottle(pjp, throttle(1, LimitAlgorithm.AIMD)) }
+		assert interceptor.limiters['Throttled.methodName'].limit == 3
+		assert interceptor.threadLimits.startsWith('Throttled.methodName: 3 (AIMD, rtt ')
+	}
+	
+	@Test
+	public void testOnlyTimeoutsAndRejectionsShrinkTheAdaptiveLimit() throws Throwable
+	{
+		ConcurrencyLimitingAspect interceptor = new ConcurrencyLimitingAspect();
+		ConcurrencyThrottle annotation = throttle(10, LimitAlgorithm.AIMD)
+		[ new IllegalArgumentException(), new IllegalStateException('wraps', new IllegalArgumentException()) ].each { e ->
+			try
+			{
+				interceptor.applyConcurrencyThrottle([ getSignature: { signature }, proceed: { throw e } ] as ProceedingJoinPoint, annotation)
+				fail("It should have thrown")
+			}
+			catch(RuntimeException expected) {}
+		}
+		assert interceptor.limiters['Throttled.methodName'].limit == 10
+
+		try
+		{
+			interceptor.applyConcurrencyThrottle([ getSignature: { signature }, proceed: { throw new IllegalStateException(new java.net.SocketTimeoutException()) } ] as ProceedingJoinPoint, annotation)
+			fail("It should have thrown")
+		}
+		catch(IllegalStateException expected) {}
+		assert interceptor.limiters['Throttled.methodName'].limit == 9
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testPartitionedCallsCantWait() throws Throwable
+	{
+		ConcurrencyThrottle annotation = throttle(10, LimitAlgorithm.FIXED, 100, 20, '', 0, [ 'health=10', '*=90' ] as String[])
+		new ConcurrencyLimitingAspect().applyConcurrencyThrottle([ getSignature: { signature } ] as ProceedingJoinPoint, annotation)
+	}
+
+	@Test
+	public void testCallOverLimitWaitsForPermit() throws Throwable
+	{
+		ConcurrencyThrottle annotation = throttle(1, LimitAlgorithm.FIXED, 5000)
+		ConcurrencyLimitingAspect interceptor = new ConcurrencyLimitingAspect();
+		CountDownLatch entered = new CountDownLatch(1), leave = new CountDownLatch(1)
+		Thread holder = occupy(interceptor, annotation, entered, leave)
+
+		Thread.start { Thread.sleep(50); leave.countDown() }
+		interceptor.applyConcurrencyThrottle({ signature } as ProceedingJoinPoint, annotation)
+		holder.join()
+
+		ConcurrencyLimiter limiter = interceptor.limiters['Throttled.methodName']
+		assert limiter.tripCount == 0
+		assert limiter.numberOfWaits == 1
+		assert limiter.getWaitTimeAtPercentile(100) >= 40
+		assert interceptor.queueDepths == 'Throttled.methodName: 0 / 20\n'
+	}
+
+	@Test
+	public void testFullQueueFailsFast() throws Throwable
+	{
+		ConcurrencyThrottle annotation = throttle(1, LimitAlgorithm.FIXED, 5000, 0)
+		ConcurrencyLimitingAspect interceptor = new ConcurrencyLimitingAspect();
+		CountDownLatch entered = new CountDownLatch(1), leave = new CountDownLatch(1)
+		Thread holder = occupy(interceptor, annotation, entered, leave)
+		try
+		{
+			long start = System.nanoTime()
+			try
+			{
+				interceptor.applyConcurrencyThrottle({ signature } as ProceedingJoinPoint, annotation)
+				fail("It should have blown up")
+			}
+			catch(ConcurrencyLimitExceededException expected) {}
+			assert System.nanoTime() - start < 1_000_000_000L
+			assert interceptor.limiters['Throttled.methodName'].tripCount == 1
+		}
+		finally
+		{
+			leave.countDown()
+			holder.join()
+		}
+	}
+
+	@Test(expected=ConcurrencyLimitExceededException.class)
+	public void testWaitTimesOut() throws Throwable
+	{
+		ConcurrencyThrottle annotation = throttle(1, LimitAlgorithm.FIXED, 20)
+		ConcurrencyLimitingAspect interceptor = new ConcurrencyLimitingAspect();
+		CountDownLatch entered = new CountDownLatch(1), leave = new CountDownLatch(1)
+		Thread holder = occupy(interceptor, annotation, entered, leave)
+		try
+		{
+			interceptor.applyConcurrencyThrottle({ signature } as ProceedingJoinPoint, annotation)
+		}
+		finally
+		{
+			leave.countDown()
+			holder.join()
+		}
+	}
+
+	@Test
+	public void testEachMethodAndOverloadHasItsOwnLimit() throws Throwable
+	{
+		ConcurrencyThrottle annotation = throttle(0)
+		ConcurrencyLimitingAspect interceptor = new ConcurrencyLimitingAspect();
+		[ Throttled.getDeclaredMethod('methodName'), Throttled.getDeclaredMethod('otherMethod'),
+				Throttled.getDeclaredMethod('lookup', String), Throttled.getDeclaredMethod('lookup', int) ].each { method ->
+			try
+			{
+				interceptor.applyConcurrencyThrottle({ signatureOf(method) } as ProceedingJoinPoint, annotation)
+				fail("It should have blown up")
+			}
+			catch(ConcurrencyLimitExceededException expected) {}
+		}
+		assert interceptor.limiters.keySet() == [ 'Throttled.methodName', 'Throttled.otherMethod', 'Throttled.lookup(String)', 'Throttled.lookup(int)' ] as Set
+		assert interceptor.limiters.values()*.tripCount == [ 1, 1, 1, 1 ]
+		assert interceptor.limiters['Throttled.lookup(String)'].tripsKey == 'concurrencyThrottle.Throttled.lookup_String.trips'
+		assert interceptor.limiters['Throttled.methodName'].tripsKey == 'concurrencyThrottle.Throttled.methodName.trips'
+	}
+
+	@Test
+	public void testMethodsWithTheSameNameShareALimit() throws Throwable
+	{
+		ConcurrencyThrottle annotation = throttle(1, LimitAlgorithm.FIXED, 0, 20, 'backend')
+		ConcurrencyLimitingAspect interceptor = new ConcurrencyLimitingAspect();
+		CountDownLatch entered = new CountDownLatch(1), leave = new CountDownLatch(1)
+		Thread holder = occupy(interceptor, annotation, entered, leave)
+		try
+		{
+			interceptor.applyConcurrencyThrottle({ signatureOf(Throttled.getDeclaredMethod('otherMethod')) } as ProceedingJoinPoint, annotation)
+			fail("It should have blown up")
+		}
+		catch(ConcurrencyLimitExceededException expected)
+		{
+			assert interceptor.limiters.keySet() == [ 'backend' ] as Set
+			assert interceptor.limiters.backend.tripCount == 1
+		}
+		finally
+		{
+			leave.countDown()
+			holder.join()
+		}
+	}
+
+	@Test
+	public void testBulkheadRunsCallOnVirtualThread() throws Throwable
+	{
+		ConcurrencyThrottle annotation = throttle(1, LimitAlgorithm.FIXED, 0, 20, '', 5000)
+		ConcurrencyLimitingAspect interceptor = new ConcurrencyLimitingAspect();
+		def pjp = [ getSignature: { signature }, proceed: { Thread.currentThread() } ] as ProceedingJoinPoint
+		Thread ranOn = interceptor.applyConcurrencyThrottle(pjp, annotation)
+		assert ranOn.virtual
+		assert ranOn.name.startsWith('bulkhead-Throttled.methodName-')
+
+		pjp = [ getSignature: { signature }, proceed: { throw new IllegalStateException('boom') } ] as ProceedingJoinPoint
+		try
+		{
+			interceptor.applyConcurrencyThrottle(pjp, annotation)
+			fail("It should have blown up")
+		}
+		catch(IllegalStateException expected)
+		{
+			assert expected.message == 'boom'
+		}
+	}
+
+	@Test
+	public void testBulkheadAbandonsSlowCallButKeepsItsPermitUntilItEnds() throws Throwable
+	{
+		ConcurrencyThrottle annotation = throttle(1, LimitAlgorithm.FIXED, 0, 20, '', 50)
+		ConcurrencyLimitingAspect interceptor = new ConcurrencyLimitingAspect();
+		CountDownLatch interrupted = new CountDownLatch(1), leave = new CountDownLatch(1)
+		def pjp = [ getSignature: { signature }, proceed: {
+			try { Thread.sleep(10000) } catch(InterruptedException e) { interrupted.countDown(); leave.await() }
+		} ] as ProceedingJoinPoint
+		try
+		{
+			interceptor.applyConcurrencyThrottle(pjp, annotation)
+			fail("It should have timed out")
+		}
+		catch(BulkheadTimeoutException expected) {}
+		assert interrupted.await(5, TimeUnit.SECONDS)
+
+		ConcurrencyLimiter limiter = interceptor.limiters['Throttled.methodName']
+		assert limiter.inFlight == 1
+		try
+		{
+			interceptor.applyConcurrencyThrottle(pjp, annotation)
+			fail("It should have blown up")
+		}
+		catch(ConcurrencyLimitExceededException expected) {}
+
+		leave.countDown()
+		for(int i = 0; i < 100 && limiter.inFlight > 0; i++) Thread.sleep(10)
+		assert limiter.inFlight == 0
+		assert interceptor.timeoutCounts == 'Throttled.methodName: 1\n'
+		assert interceptor.tripCounts == 'Throttled.methodName: 1\n'
+	}
+
 	// Testing concurrency is really hard...left as an exercise for the reader.
 }
@@ -0,0 +1,67 @@
+package com.kendelong.util.concurrency;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LimitAlgorithmTest
+{
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void testAimdGrowsWhenUsedAndBacksOffOnFailure()
+	{
+		AimdLimit limit = new AimdLimit(10, 1, 12);
+		assertEquals(10, limit.update(10 * MS, 2, false));
+		assertEquals(11, limit.update(10 * MS, 5, false));
+		assertEquals(12, limit.update(10 * MS, 11, false));
+		assertEquals(12, limit.update(10 * MS, 12, false));
+		assertEquals(10, limit.update(10 * MS, 12, true));
+	}
+
+	@Test
+	public void testAimdStaysAboveMinimum()
+	{
+		AimdLimit limit = new AimdLimit(2, 2, 100);
+		for(int i = 0; i < 10; i++) limit.update(10 * MS, 2, true);
+		assertEquals(2, limit.getLimit());
+	}
+
+	@Test
+	public void testVegasGrowsWithoutQueueAndShrinksWithOne()
+	{
+		VegasLimit limit = new VegasLimit(20, 1, 1000);
+		limit.update(10 * MS, 20, false);
+		assertTrue(limit.getLimit() > 20);
+		int grown = limit.getLimit();
+		// calls taking twice the no-load time: half the limit is queued
+		limit.update(20 * MS, grown, false);
+		assertTrue(limit.getLimit() < grown);
+	}
+
+	@Test
+	public void testGradientShrinksWhenCallsSlowDown()
+	{
+		GradientLimit limit = new GradientLimit(50, 1, 1000);
+		for(int i = 0; i < 100; i++) limit.update(10 * MS, 50, false);
+		int steady = limit.getLimit();
+		for(int i = 0; i < 20; i++) limit.update(100 * MS, steady, false);
+		assertTrue(limit.getLimit() < steady);
+	}
+
+	@Test
+	public void testSemaphoreCanShrinkBelowPermitsInUse()
+	{
+		AdjustableSemaphore semaphore = new AdjustableSemaphore(3);
+		assertTrue(semaphore.tryAcquire(3));
+		semaphore.setMaxPermits(1);
+		semaphore.release(2);
+		assertFalse(semaphore.tryAcquire());
+		semaphore.release();
+		assertTrue(semaphore.tryAcquire());
+		semaphore.setMaxPermits(4);
+		assertEquals(3, semaphore.availablePermits());
+	}
+}
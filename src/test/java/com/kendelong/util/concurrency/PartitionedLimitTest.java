@@ -0,0 +1,115 @@
+package com.kendelong.util.concurrency;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import com.kendelong.util.concurrency.PartitionedLimit.Partition;
+
+public class PartitionedLimitTest
+{
+	@After
+	public void tearDown()
+	{
+		RequestContextHolder.resetRequestAttributes();
+	}
+
+	@Test
+	public void testIdleCapacityIsBorrowedAndOverSharePartitionsAreShedFirst()
+	{
+		PartitionedLimit limit = new PartitionedLimit(new String[] { "health=10", "batch=90" }, 0, "");
+		Partition health = limit.getPartition(new Object[] { "health" });
+		Partition batch = limit.getPartition(new Object[] { "batch" });
+
+		// batch's share is 18; it borrows all but the place kept for health
+		for(int i = 0; i < 19; i++) assertTrue(limit.tryAcquire(batch, 20));
+		assertFalse(limit.tryAcquire(batch, 20));
+		assertTrue(limit.tryAcquire(health, 20));
+		assertFalse(limit.tryAcquire(health, 20));
+		assertEquals(20, limit.getInFlight());
+		assertEquals(1, batch.getRejected());
+		assertEquals(1, health.getRejected());
+
+		// the place batch gives back goes to health, which is still below its share of 2
+		limit.release(batch);
+		assertFalse(limit.tryAcquire(batch, 20));
+		assertTrue(limit.tryAcquire(health, 20));
+		assertEquals(20, limit.getInFlight());
+
+		limit.release(health);
+		limit.release(health);
+		assertTrue(limit.tryAcquire(batch, 20));
+		assertFalse(limit.tryAcquire(batch, 20));
+	}
+
+	@Test
+	public void testTheTotalNeverGoesOverTheLimit() throws InterruptedException
+	{
+		PartitionedLimit limit = new PartitionedLimit(new String[] { "health=10", "paying=60", "*=30" }, 0, "");
+		String[] keys = { "health", "paying", "crawler" };
+		AtomicInteger highest = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for(int t = 0; t < threads.length; t++)
+		{
+			threads[t] = new Thread(() -> {
+				for(int i = 0; i < 20000; i++)
+				{
+					Partition partition = limit.getPartition(new Object[] { keys[ThreadLocalRandom.current().nextInt(keys.length)] });
+					if(!limit.tryAcquire(partition, 20)) continue;
+					highest.accumulateAndGet(limit.getInFlight(), Math::max);
+					Thread.yield();
+					limit.release(partition);
+				}
+			});
+			threads[t].start();
+		}
+		for(Thread thread : threads) thread.join();
+		assertTrue("in flight went up to " + highest.get(), highest.get() <= 20);
+		assertEquals(0, limit.getInFlight());
+	}
+
+	@Test
+	public void testUnlistedKeysShareTheOthersPartition()
+	{
+		PartitionedLimit limit = new PartitionedLimit(new String[] { "paying=1" }, 1, "");
+		Partition unknown = limit.getPartition(new Object[] { "x", "freeloader" });
+		assertSame(limit.getPartition(PartitionedLimit.OTHERS), unknown);
+		assertSame(unknown, limit.getPartition(new Object[] { "x", null }));
+		assertEquals(0, unknown.getShare(10));
+
+		assertTrue(limit.tryAcquire(unknown, 3));
+		assertTrue(limit.tryAcquire(unknown, 3));
+		assertFalse(limit.tryAcquire(unknown, 3));
+		assertTrue(limit.tryAcquire(limit.getPartition(new Object[] { "x", "paying" }), 3));
+	}
+
+	@Test
+	public void testKeyFromRequestAttribute()
+	{
+		PartitionedLimit limit = new PartitionedLimit(new String[] { "tenantA=3", "*=1" }, -1, "tenant");
+		assertSame(limit.getPartition(PartitionedLimit.OTHERS), limit.getPartition(new Object[0]));
+
+		RequestAttributes request = createMock(RequestAttributes.class);
+		expect(request.getAttribute("tenant", RequestAttributes.SCOPE_REQUEST)).andReturn("tenantA");
+		replay(request);
+		RequestContextHolder.setRequestAttributes(request);
+		Partition tenantA = limit.getPartition(new Object[0]);
+		assertEquals("tenantA", tenantA.getKey());
+		assertEquals(8, tenantA.getShare(10));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testWeightsMustBeKeyEqualsWeight()
+	{
+		new PartitionedLimit(new String[] { "health" }, 0, "");
+	}
+}
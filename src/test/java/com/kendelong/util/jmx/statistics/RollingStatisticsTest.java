@@ -0,0 +1,78 @@
+package com.kendelong.util.jmx.statistics;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RollingStatisticsTest
+{
+	private long nanos = 1_000_000_000L;
+	private long millis = 1_000_000L;
+
+	private final ExponentiallyWeightedRates rates = new ExponentiallyWeightedRates()
+	{
+		@Override
+		protected long getTime()
+		{
+			return nanos;
+		}
+	};
+
+	private final RollingWindow window = new RollingWindow(10)
+	{
+		@Override
+		protected long getTime()
+		{
+			return millis;
+		}
+	};
+
+	@Test
+	public void givenEventsInOneInterval_whenIntervalPasses_thenRateIsTheirRate()
+	{
+		rates.mark(300);
+		nanos += TimeUnit.SECONDS.toNanos(5);
+		assertEquals(60, rates.getOneMinuteRate(), 0.0001);
+		assertEquals(60, rates.getFifteenMinuteRate(), 0.0001);
+	}
+
+	@Test
+	public void givenTrafficStops_whenTimePasses_thenShortRatesDecayFaster()
+	{
+		rates.mark(300);
+		nanos += TimeUnit.SECONDS.toNanos(5);
+		rates.getOneMinuteRate();
+		nanos += TimeUnit.MINUTES.toNanos(10);
+		assertEquals(0, rates.getOneMinuteRate(), 0.01);
+		assertTrue(rates.getFiveMinuteRate() > rates.getOneMinuteRate());
+		assertTrue(rates.getFifteenMinuteRate() > rates.getFiveMinuteRate());
+	}
+
+	@Test
+	public void givenTimings_whenInWindow_thenCountedAndAveraged()
+	{
+		window.record(TimeUnit.MILLISECONDS.toNanos(10));
+		millis += 3000;
+		window.record(TimeUnit.MILLISECONDS.toNanos(30));
+		window.increment();
+		assertEquals(3, window.getCount());
+		assertEquals(0.3, window.getRatePerSecond(), 0.0001);
+		assertEquals(20, window.getAverage(TimeUnit.MILLISECONDS), 0.0001);
+	}
+
+	@Test
+	public void givenTimings_whenWindowPasses_thenTheyDropOut()
+	{
+		window.record(TimeUnit.MILLISECONDS.toNanos(10));
+		millis += 5000;
+		window.record(TimeUnit.MILLISECONDS.toNanos(30));
+		millis += 6000;
+		assertEquals(1, window.getCount());
+		assertEquals(30, window.getAverage(TimeUnit.MILLISECONDS), 0.0001);
+		millis += 10_000;
+		assertEquals(0, window.getCount());
+		assertEquals(0, window.getAverage(TimeUnit.MILLISECONDS), 0.0001);
+	}
+}
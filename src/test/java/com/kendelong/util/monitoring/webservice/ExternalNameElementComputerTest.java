@@ -3,6 +3,7 @@ package com.kendelong.util.monitoring.webservice;
 import static org.junit.Assert.*;
 
 import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
 
 public class ExternalNameElementComputerTest
 {
@@ -22,6 +23,24 @@ public class ExternalNameElementComputerTest
 		assertEquals("com.kendelong.BrokenService", computer.cleanClassName(cn));
 	}
 	
+	@Test
+	public void givenSpring6ProxyClassName_returnsClean()
+	{
+		String cn = "com.kendelong.BrokenService$$SpringCGLIB$$0";
+		assertEquals("com.kendelong.BrokenService", computer.cleanClassName(cn));
+	}
+
+	@Test
+	public void givenProxyOfAnnotatedClass_theNameIsCorrect()
+	{
+		ProxyFactory factory = new ProxyFactory(new AnnotationTest());
+		factory.setProxyTargetClass(true);
+		Object proxy = factory.getProxy();
+		assertEquals("client", computer.computeExternalNameElement(proxy.getClass()));
+		assertNull(computer.computeExternalNameElement(String.class));
+		assertNull(computer.computeExternalNameElement(String.class));
+	}
+	
 	@Test
 	public void givenClassWitheWebserviceAnnation_theNameIsCorrect()
 	{
@@ -0,0 +1,15 @@
+package com.kendelong.util.performance;
+
+@MonitorPerformance
+public class MonitoredService
+{
+	public int work()
+	{
+		return 1;
+	}
+
+	public int otherWork()
+	{
+		return 2;
+	}
+}
@@ -2,6 +2,10 @@ package com.kendelong.util.performance;
 
 import static org.junit.Assert.*;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 
 public class PerformanceMonitorTest
@@ -94,4 +98,66 @@ public class PerformanceMonitorTest
 		assertEquals(0.01, monitor.getAccessesPerSecond(), 0.00001);
 	}
 
+	@Test
+	public void givenPercentileMonitor_whenTimesEntered_thenPercentilesAreCorrect()
+	{
+		PerformanceMonitor monitor = new PerformanceMonitor(60_000, 3);
+		for(int i = 1; i <= 1000; i++) monitor.addTiming(i);
+		assertTrue(monitor.isRecordingPercentiles());
+		assertEquals(500, monitor.getMedianResponseTime(), 1);
+		assertEquals(900, monitor.get90thPercentileResponseTime(), 1);
+		assertEquals(990, monitor.get99thPercentileResponseTime(), 1);
+		assertEquals(999, monitor.get999thPercentileResponseTime(), 1);
+	}
+
+	@Test
+	public void givenPercentileMonitor_whenManyTimesEntered_thenMemoryDoesNotGrow()
+	{
+		PerformanceMonitor monitor = new PerformanceMonitor(60_000, 2);
+		long footprint = monitor.getHistogramFootprintInBytes();
+		for(int i = 0; i < 100_000; i++) monitor.addTiming(i);
+		monitor.addTiming(Long.MAX_VALUE);
+		assertEquals(footprint, monitor.getHistogramFootprintInBytes());
+		assertEquals(60_000, monitor.getResponseTimeAtPercentile(100), 60_000 * 0.01);
+	}
+
+	@Test
+	public void givenPlainMonitor_thenPercentilesAreZero()
+	{
+		monitor.addTiming(12);
+		assertFalse(monitor.isRecordingPercentiles());
+		assertEquals(0, monitor.get99thPercentileResponseTime(), 0.0001);
+	}
+
+	@Test
+	public void givenBlank_whenSubMillisecondTimesEntered_thenTheyAreNotLost()
+	{
+		monitor.addTimingInNanos(250_000);
+		monitor.addTimingInNanos(750_000);
+		assertEquals(0.5, monitor.getAverageResponseTime(), 0.0001);
+		assertEquals(500, monitor.getAverageResponseTime(TimeUnit.MICROSECONDS), 0.0001);
+		assertEquals(0.25, monitor.getMinimumResponseTime(), 0.0001);
+		assertEquals(750, monitor.getMaximumResponseTime(TimeUnit.MICROSECONDS), 0.0001);
+	}
+
+	@Test
+	public void givenManyThreads_whenTimesEntered_thenNoExtremeOrAccessIsLost() throws Exception
+	{
+		int threads = 8;
+		int perThread = 10_000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for(int t = 0; t < threads; t++)
+		{
+			int offset = t;
+			executor.execute(() -> {
+				for(int i = 1; i <= perThread; i++) monitor.addTimingInNanos(i * threads + offset);
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals(threads * perThread, monitor.getNumberOfAccesses());
+		assertEquals(threads, monitor.getMinimumResponseTime(TimeUnit.NANOSECONDS), 0.0001);
+		assertEquals(perThread * threads + threads - 1, monitor.getMaximumResponseTime(TimeUnit.NANOSECONDS), 0.0001);
+	}
+
 }
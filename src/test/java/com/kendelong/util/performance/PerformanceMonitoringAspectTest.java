@@ -0,0 +1,76 @@
+package com.kendelong.util.performance;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+public class PerformanceMonitoringAspectTest
+{
+	private PerformanceMonitoringAspect aspect;
+	private MonitoredService service;
+
+	@Before
+	public void setUp()
+	{
+		aspect = new PerformanceMonitoringAspect();
+		AspectJProxyFactory factory = new AspectJProxyFactory(new MonitoredService());
+		factory.setProxyTargetClass(true);
+		factory.addAspect(aspect);
+		service = factory.getProxy();
+	}
+
+	@Test
+	public void testCallsAreRecordedOnClassAndMethodMonitors()
+	{
+		service.work();
+		service.work();
+		service.otherWork();
+		assertEquals(3, aspect.getMonitors().get("MonitoredService").getNumberOfAccesses());
+		assertEquals(2, aspect.getMonitors().get("MonitoredService.work").getNumberOfAccesses());
+		assertEquals(1, aspect.getMonitors().get("MonitoredService.otherWork").getNumberOfAccesses());
+	}
+
+	@Test
+	public void testConcurrentFirstCallsShareOneMonitor() throws Exception
+	{
+		int threads = 16;
+		int calls = 1000;
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for(int t = 0; t < threads; t++)
+		{
+			executor.execute(() -> {
+				try
+				{
+					start.await();
+				}
+				catch(InterruptedException e)
+				{
+					return;
+				}
+				for(int i = 0; i < calls; i++) service.work();
+			});
+		}
+		start.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+		assertEquals(threads * calls, aspect.getMonitors().get("MonitoredService.work").getNumberOfAccesses());
+		assertEquals(threads * calls, aspect.getMonitors().get("MonitoredService").getNumberOfAccesses());
+	}
+
+	@Test
+	public void testResetStartsNewMonitors()
+	{
+		service.work();
+		aspect.resetAllMonitors();
+		service.work();
+		assertEquals(1, aspect.getMonitors().get("MonitoredService.work").getNumberOfAccesses());
+	}
+}
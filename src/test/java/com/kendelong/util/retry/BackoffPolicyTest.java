@@ -0,0 +1,63 @@
+package com.kendelong.util.retry;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BackoffPolicyTest
+{
+	@Test
+	public void testLinearAndExponentialAreCapped()
+	{
+		assertEquals(300, BackoffPolicy.LINEAR.getDelay(3, 100, 1000, 0));
+		assertEquals(400, BackoffPolicy.EXPONENTIAL.getDelay(3, 100, 1000, 0));
+		assertEquals(1000, BackoffPolicy.EXPONENTIAL.getDelay(5, 100, 1000, 0));
+		assertEquals(1000, BackoffPolicy.EXPONENTIAL.getDelay(100, 100, 1000, 0));
+	}
+
+	@Test
+	public void testJitteredDelaysStayInRange()
+	{
+		long previous = 0;
+		for(int attempt = 1; attempt < 200; attempt++)
+		{
+			long full = BackoffPolicy.FULL_JITTER.getDelay(attempt, 100, 5000, 0);
+			assertTrue(full >= 0 && full <= Math.min(5000, BackoffPolicy.EXPONENTIAL.getDelay(attempt, 100, 5000, 0)));
+
+			long decorrelated = BackoffPolicy.DECORRELATED_JITTER.getDelay(attempt, 100, 5000, previous);
+			assertTrue(decorrelated >= 100 && decorrelated <= Math.min(5000, Math.max(100, previous) * 3));
+			previous = decorrelated;
+		}
+	}
+
+	@Test
+	public void testFullJitterStaysSpreadOutPastTheCap()
+	{
+		int atCap = 0;
+		int belowHalf = 0;
+		for(int i = 0; i < 1000; i++)
+		{
+			// base * 2^9 = 51200 ms, far past the cap
+			long delay = BackoffPolicy.FULL_JITTER.getDelay(10, 100, 10000, 0);
+			if(delay == 10000) atCap++;
+			if(delay < 5000) belowHalf++;
+		}
+		// evenly spread over 0..10000, hardly any land exactly on the cap and about half are below 5000
+		assertTrue("too many delays on the cap: " + atCap, atCap < 10);
+		assertTrue("too few delays below half the cap: " + belowHalf, belowHalf > 350);
+	}
+
+	@Test
+	public void testRetryBudgetRefillsWithCalls()
+	{
+		RetryBudget budget = new RetryBudget(50, 1);
+		assertTrue(budget.tryRetry());
+		assertFalse(budget.tryRetry());
+		budget.recordCall();
+		assertFalse(budget.tryRetry());
+		budget.recordCall();
+		assertTrue(budget.tryRetry());
+		for(int i = 0; i < 10; i++) budget.recordCall();
+		assertEquals(1, budget.getAvailableRetries());
+	}
+}
@@ -0,0 +1,41 @@
+package com.kendelong.util.retry;
+
+import static org.junit.Assert.*;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class RetryClassifierTest
+{
+	@Test
+	public void testSubclassesAreRetried()
+	{
+		RetryClassifier classifier = new RetryClassifier(Arrays.asList(SQLTransientException.class), Collections.emptyList(), false);
+		assertTrue(classifier.isRetryable(new SQLTransientException()));
+		assertTrue(classifier.isRetryable(new SQLTransientConnectionException()));
+		assertFalse(classifier.isRetryable(new SQLException()));
+		assertFalse(classifier.isRetryable(new RuntimeException(new SQLTransientConnectionException())));
+	}
+
+	@Test
+	public void testCauseChainIsInspected()
+	{
+		RetryClassifier classifier = new RetryClassifier(Arrays.asList(SQLTransientException.class), Collections.emptyList(), true);
+		assertTrue(classifier.isRetryable(new IllegalStateException(new RuntimeException(new SQLTransientConnectionException()))));
+		assertFalse(classifier.isRetryable(new IllegalStateException(new RuntimeException())));
+	}
+
+	@Test
+	public void testPredicatesDecideTheRest()
+	{
+		IRetryPredicate deadlocks = t -> t instanceof SQLException && "40001".equals(((SQLException) t).getSQLState());
+		RetryClassifier classifier = new RetryClassifier(Collections.<Class<? extends Throwable>>emptyList(), Arrays.asList(deadlocks), true);
+		assertTrue(classifier.isRetryable(new SQLException("deadlock", "40001")));
+		assertFalse(classifier.isRetryable(new SQLException("constraint", "23000")));
+	}
+}
@@ -1,9 +1,19 @@
 package com.kendelong.util.retry;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
 
 import org.aspectj.lang.ProceedingJoinPoint;
+import java.lang.reflect.Method
 import org.aspectj.lang.Signature;
+import org.aspectj.lang.reflect.MethodSignature
+
+import javax.management.openmbean.CompositeData
+import javax.management.openmbean.TabularData
 import org.aspectj.lang.reflect.SourceLocation;
 import org.aspectj.runtime.internal.AroundClosure;
 import org.junit.Before;
@@ -20,7 +30,13 @@ public class RetryInterceptorTest
 	{
 		interceptor = new RetryInterceptor();
 		pjp = getJoinpoint();
-		ann = [msToFirstRetry: { 100 }, maxRetries: { 2 }, annotationType: { RetryableOperation.class }] as RetryableOperation
+		ann = annotation(100, 2)
+	}
+
+	private RetryableOperation annotation(int msToFirstRetry, int maxRetries, BackoffPolicy backoff = BackoffPolicy.LINEAR)
+	{
+		[msToFirstRetry: { msToFirstRetry }, maxRetries: { maxRetries }, backoff: { backoff }, maxDelayMs: { 10000L },
+			annotationType: { RetryableOperation.class }] as RetryableOperation
 	}
 
 	@Test
@@ -69,6 +85,126 @@ public class RetryInterceptorTest
 	}
 	
 
+	@Test
+	public void testRetryBudgetStopsRetriesWhenUsedUp()
+	{
+		interceptor.getExceptionClassesToRetry().add(UnsupportedOperationException.class);
+		interceptor.setRetryBudgetMaxTokens(3);
+		interceptor.setRetryBudgetPercent(10);
+		RetryableOperation noDelay = annotation(0, 2, BackoffPolicy.EXPONENTIAL)
+		3.times
+		{
+			try
+			{
+				interceptor.doConcurrentOperation(pjp, noDelay);
+			}
+			catch(UnsupportedOperationException expected)
+			{
+			}
+		}
+		// 3 saved up plus 3 x 0.1 earned: the first call retries twice, the second once, the third not at all
+		assertEquals(3, interceptor.getRetriedOperations());
+		assertEquals(2, interceptor.getRetriesDeniedByBudget());
+		assertEquals(0, interceptor.getAvailableRetries());
+	}
+
+	@Test
+	public void testStatisticsArePerMethodOpenData()
+	{
+		interceptor.getExceptionClassesToRetry().add(UnsupportedOperationException.class);
+		int calls = 0
+		ProceedingJoinPoint flaky = [ getSignature: { [ getMethod: { Service.getDeclaredMethod('flaky') }, getReturnType: { String } ] as MethodSignature },
+			proceed: { if(++calls % 2 == 1) throw new UnsupportedOperationException(); 'ok' } ] as ProceedingJoinPoint
+		RetryableOperation flakyAnn = annotation(5, 3)
+		2.times { interceptor.doConcurrentOperation(flaky, flakyAnn) }
+		try
+		{
+			interceptor.doConcurrentOperation(pjp, annotation(0, 1));
+		}
+		catch(UnsupportedOperationException expected)
+		{
+		}
+
+		TabularData table = interceptor.getMethodStatistics()
+		assertEquals(2, table.size())
+		CompositeData flakyStats = table.get([ 'Service.flaky' ] as Object[])
+		assert flakyStats.get('accesses') == 2L
+		assert flakyStats.get('retries') == 2L
+		assert flakyStats.get('sleepTimeMs') == 10L
+		assert flakyStats.get('attemptsToSucceed') == [ 0L, 2L, 0L, 0L ] as long[]
+		assert flakyStats.get('maxRetries') == 3
+
+		CompositeData failingStats = table.get([ 'Service.foo' ] as Object[])
+		assert failingStats.get('failures') == 2L
+		assert failingStats.get('exhausted') == 1L
+		assert failingStats.get('maxRetries') == 1
+		assertEquals(3, interceptor.getMaxRetries());
+	}
+
+	static class Service
+	{
+		String flaky() { null }
+		void foo() {}
+	}
+
+	static class AsyncService
+	{
+		CompletableFuture<String> fetch() { null }
+	}
+
+	private ProceedingJoinPoint asyncJoinpoint(Closure proceed)
+	{
+		MethodSignature signature = [ getReturnType: { CompletableFuture }, toShortString: { 'fetch()' }, getDeclaringTypeName: { AsyncService.name }, getName: { 'fetch' },
+			getMethod: { AsyncService.getDeclaredMethod('fetch') } ] as MethodSignature
+		[ getSignature: { signature }, proceed: proceed ] as ProceedingJoinPoint
+	}
+
+	@Test
+	public void testFailedFutureIsRetriedWithoutBlockingTheCaller()
+	{
+		interceptor.getExceptionClassesToRetry().add(UnsupportedOperationException.class);
+		int calls = 0
+		Thread caller = Thread.currentThread()
+		List<Thread> threads = []
+		ProceedingJoinPoint async = asyncJoinpoint {
+			threads << Thread.currentThread()
+			// the first attempt throws, the second returns a failed future, the third succeeds
+			if(++calls == 1) throw new UnsupportedOperationException()
+			calls == 2 ? CompletableFuture.failedFuture(new UnsupportedOperationException()) : CompletableFuture.completedFuture('done')
+		}
+		long start = System.nanoTime()
+		CompletableFuture<String> result = interceptor.doConcurrentOperation(async, annotation(200, 2))
+		assert System.nanoTime() - start < 150_000_000L
+		assert !result.done
+
+		assert result.get(5, TimeUnit.SECONDS) == 'done'
+		assert calls == 3
+		assert threads[0] == caller
+		assert threads[1].virtual && threads[2].virtual
+		assertEquals(2, interceptor.getRetriedOperations());
+		assertEquals(0, interceptor.getFailedOperations());
+	}
+
+	@Test
+	public void testFutureFailsWithLastExceptionWhenRetriesRunOut()
+	{
+		interceptor.getExceptionClassesToRetry().add(UnsupportedOperationException.class);
+		ProceedingJoinPoint async = asyncJoinpoint { CompletableFuture.supplyAsync { throw new UnsupportedOperationException('nope') } }
+		CompletableFuture<String> result = interceptor.doConcurrentOperation(async, annotation(0, 2))
+		try
+		{
+			result.get(5, TimeUnit.SECONDS)
+			fail('It should have failed')
+		}
+		catch(ExecutionException e)
+		{
+			assert e.cause instanceof UnsupportedOperationException
+			assert e.cause.message == 'nope'
+		}
+		assertEquals(2, interceptor.getRetriedOperations());
+		assertEquals(1, interceptor.getFailedOperations());
+	}
+
 	protected ProceedingJoinPoint getJoinpoint()
 	{
 		return new MyPJP();
@@ -149,8 +285,37 @@ public class RetryInterceptorTest
 		
 	};
 
-	class MySignature implements  Signature
+	class MySignature implements MethodSignature
 	{
+		@Override
+		public Method getMethod()
+		{
+			return Service.getDeclaredMethod('foo')
+		}
+
+		@Override
+		public Class getReturnType()
+		{
+			return void.class
+		}
+
+		@Override
+		public Class[] getParameterTypes()
+		{
+			return new Class[0]
+		}
+
+		@Override
+		public String[] getParameterNames()
+		{
+			return new String[0]
+		}
+
+		@Override
+		public Class[] getExceptionTypes()
+		{
+			return new Class[0]
+		}
 		
 		@Override
 		public String toShortString()
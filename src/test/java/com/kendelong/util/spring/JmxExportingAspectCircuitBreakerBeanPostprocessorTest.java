@@ -12,6 +12,7 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import com.kendelong.util.circuitbreaker.CircuitBreakerAspect;
+import com.kendelong.util.circuitbreaker.JmxExporterStub;
 import com.kendelong.util.circuitbreaker.MyService;
 
 import static org.junit.Assert.*;
@@ -28,6 +29,9 @@ public class JmxExportingAspectCircuitBreakerBeanPostprocessorTest
 	@Qualifier("myService2")
 	private MyService svc2;
 	
+	@Autowired
+	private JmxExporterStub jmxExporter;
+	
 	@Test
 	public void testTwoDifferentServicesGetTwoDifferentPojos()
 	{
@@ -61,6 +65,16 @@ public class JmxExportingAspectCircuitBreakerBeanPostprocessorTest
 		assertEquals("Svc wrongly incremented", 2, pojo.getCurrentFailureCount());
 	}
 
+	@Test
+	public void testEachBreakerIsExportedUnderItsOwnName()
+	{
+		CircuitBreakerAspect pojo = (CircuitBreakerAspect) extractPojo(svc);
+		Object breaker = jmxExporter.getRegistered().get("app.mystuff.circuitbreaker:bean=myService,name=MyService.serviceMethod");
+		assertSame(pojo.getCircuitBreaker("MyService.serviceMethod"), breaker);
+		assertSame(pojo, jmxExporter.getRegistered().get("app.mystuff.circuitbreaker:bean=myService"));
+		assertNotNull(jmxExporter.getRegistered().get("app.mystuff.circuitbreaker:bean=myService,name=sharedBackend"));
+	}
+
 	private void invokeServiceMethod(MyService svc)
 	{
 		try